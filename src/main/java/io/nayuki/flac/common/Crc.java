@@ -0,0 +1,114 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.common;
+
+
+/**
+ * Computes the two CRCs used in FLAC frames, over ranges of bytes: the CRC-8 (polynomial 0x07) that
+ * protects each frame header, and the CRC-16 (polynomial 0x8005) that protects each whole frame.
+ * Both are unreflected with an initial value of 0. Eight bytes are processed per step using
+ * the slicing-by-8 technique, where table k gives the CRC of a byte followed by k zero bytes.
+ */
+public final class Crc {
+
+    // Functions
+
+    /**
+     * Returns the CRC-8 of the given current CRC value (a uint8) followed by the bytes b[off : off + len].
+     * Call this with crc = 0 to start a new calculation.
+     */
+    public static int updateCrc8(int crc, byte[] b, int off, int len) {
+        if ((crc >>> 8) != 0)
+            throw new IllegalArgumentException();
+        if (off < 0 || len < 0 || off > b.length - len)
+            throw new IndexOutOfBoundsException();
+        int end = off + len;
+        byte[] t = CRC8_TABLES;
+        for (; off <= end - 8; off += 8) {
+            crc = t[7 << 8 | (crc ^ b[off]) & 0xFF]
+                ^ t[6 << 8 | b[off + 1] & 0xFF]
+                ^ t[5 << 8 | b[off + 2] & 0xFF]
+                ^ t[4 << 8 | b[off + 3] & 0xFF]
+                ^ t[3 << 8 | b[off + 4] & 0xFF]
+                ^ t[2 << 8 | b[off + 5] & 0xFF]
+                ^ t[1 << 8 | b[off + 6] & 0xFF]
+                ^ t[b[off + 7] & 0xFF];
+            crc &= 0xFF;
+        }
+        for (; off < end; off++)
+            crc = t[(crc ^ b[off]) & 0xFF] & 0xFF;
+        return crc;
+    }
+
+    /**
+     * Returns the CRC-16 of the given current CRC value (a uint16) followed by the bytes b[off : off + len].
+     * Call this with crc = 0 to start a new calculation.
+     */
+    public static int updateCrc16(int crc, byte[] b, int off, int len) {
+        if ((crc >>> 16) != 0)
+            throw new IllegalArgumentException();
+        if (off < 0 || len < 0 || off > b.length - len)
+            throw new IndexOutOfBoundsException();
+        int end = off + len;
+        char[] t = CRC16_TABLES;
+        for (; off <= end - 8; off += 8) {
+            crc = t[7 << 8 | ((crc >>> 8) ^ b[off]) & 0xFF]
+                ^ t[6 << 8 | (crc ^ b[off + 1]) & 0xFF]
+                ^ t[5 << 8 | b[off + 2] & 0xFF]
+                ^ t[4 << 8 | b[off + 3] & 0xFF]
+                ^ t[3 << 8 | b[off + 4] & 0xFF]
+                ^ t[2 << 8 | b[off + 5] & 0xFF]
+                ^ t[1 << 8 | b[off + 6] & 0xFF]
+                ^ t[b[off + 7] & 0xFF];
+        }
+        for (; off < end; off++)
+            crc = t[((crc >>> 8) ^ b[off]) & 0xFF] ^ ((crc & 0xFF) << 8);
+        return crc;
+    }
+
+    // Tables of constants
+
+    /** Entry k * 256 + i is the CRC of the byte i followed by k zero bytes, for 0 <= k < 8. */
+    private static final byte[] CRC8_TABLES = new byte[8 * 256];
+    private static final char[] CRC16_TABLES = new char[8 * 256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int temp8 = i;
+            int temp16 = i << 8;
+            for (int j = 0; j < 8; j++) {
+                temp8 = (temp8 << 1) ^ ((temp8 >>> 7) * 0x107);
+                temp16 = (temp16 << 1) ^ ((temp16 >>> 15) * 0x18005);
+            }
+            CRC8_TABLES[i] = (byte) temp8;
+            CRC16_TABLES[i] = (char) temp16;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int i = 0; i < 256; i++) {
+                int prev8 = CRC8_TABLES[(k - 1) << 8 | i] & 0xFF;
+                int prev16 = CRC16_TABLES[(k - 1) << 8 | i];
+                CRC8_TABLES[k << 8 | i] = CRC8_TABLES[prev8];
+                CRC16_TABLES[k << 8 | i] = (char) (CRC16_TABLES[prev16 >>> 8] ^ ((prev16 & 0xFF) << 8));
+            }
+        }
+    }
+}
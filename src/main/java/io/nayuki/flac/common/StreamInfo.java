@@ -286,23 +286,53 @@ public final class StreamInfo {
             throw new AssertionError(e);
         }
 
+        updateMd5Hash(hasher, samples, 0, samples[0].length, depth);
+        return hasher.digest();
+    }
+
+    /**
+     * Feeds the audio samples[ : ][off : off + len] to the specified hasher, converted to bytes in the same way as
+     * getMd5Hash(). Calling this on consecutive ranges of a stream and then calling hasher.digest() gives the same
+     * result as getMd5Hash() on the whole stream, so that the hash can be computed without holding all the audio.
+     *
+     * @param hasher  the MD5 hasher to update (not {@code null})
+     * @param samples the audio samples to hash, where
+     *                each subarray is a channel (all not {@code null})
+     * @param off     the index of the first sample to hash in each channel
+     * @param len     the number of samples to hash in each channel
+     * @param depth   the bit depth of the audio samples
+     *                (i.e. each sample value is a signed 'depth'-bit integer)
+     * @throws NullPointerException      if the hasher, array or any subarray is {@code null}
+     * @throws IllegalArgumentException  if the bit depth is unsupported
+     * @throws IndexOutOfBoundsException if the range is out of bounds for any channel
+     */
+    public static void updateMd5Hash(MessageDigest hasher, int[][] samples, int off, int len, int depth) {
+        // Check arguments
+        Objects.requireNonNull(hasher);
+        Objects.requireNonNull(samples);
+        for (int[] chanSamples : samples) {
+            Objects.requireNonNull(chanSamples);
+            if (off < 0 || len < 0 || off > chanSamples.length - len)
+                throw new IndexOutOfBoundsException();
+        }
+        if (depth < 0 || depth > 32 || depth % 8 != 0)
+            throw new IllegalArgumentException("Unsupported bit depth");
+
         // Convert samples to a stream of bytes, compute hash
         int numChannels = samples.length;
-        int numSamples = samples[0].length;
         int numBytes = depth / 8;
-        byte[] buf = new byte[numChannels * numBytes * Math.min(numSamples, 2048)];
-        for (int i = 0, l = 0; i < numSamples; i++) {
+        byte[] buf = new byte[numChannels * numBytes * Math.min(len, 2048)];
+        for (int i = off, end = off + len, l = 0; i < end; i++) {
             for (int[] sample : samples) {
                 int val = sample[i];
                 for (int k = 0; k < numBytes; k++, l++)
                     buf[l] = (byte) (val >>> (k << 3));
             }
-            if (l == buf.length || i == numSamples - 1) {
+            if (l == buf.length || i == end - 1) {
                 hasher.update(buf, 0, l);
                 l = 0;
             }
         }
-        return hasher.digest();
     }
 
     @Override
@@ -26,6 +26,8 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Objects;
 
+import io.nayuki.flac.common.Crc;
+
 
 /**
  * A basic implementation of most functionality required by FlacLowLevelInput.
@@ -57,8 +59,19 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
 
     // Constructors
 
+    /** Constructs an input with a read buffer of the default size (4 KiB). */
     public AbstractFlacLowLevelInput() {
-        byteBuffer = new byte[4096];
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs an input with a read buffer of the given size in bytes. A larger buffer means fewer reads of
+     * the underlying stream, and more seeks that land within recently read data and so are served from memory.
+     */
+    public AbstractFlacLowLevelInput(int bufferSize) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("Buffer size must be positive");
+        byteBuffer = new byte[bufferSize];
         positionChanged(0);
     }
 
@@ -82,14 +95,27 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
      */
     protected void positionChanged(long pos) {
         byteBufferStartPos = pos;
-        Arrays.fill(byteBuffer, (byte) 0);  // Defensive clearing, should have no visible effect outside of debugging
         byteBufferLen = 0;
         byteBufferIndex = 0;
-        bitBuffer = 0;  // Defensive clearing, should have no visible effect outside of debugging
         bitBufferLen = 0;
         resetCrcs();
     }
 
+    /**
+     * A subclass can call this method first in seekTo() to avoid touching the underlying stream. If the given
+     * position lies within the data most recently read from the underlying stream, then this moves the read
+     * position inside the buffer, resets the bit position and CRCs, and returns true; the subclass must then
+     * neither move the underlying stream nor call positionChanged(). Otherwise this returns false and changes nothing.
+     */
+    protected boolean seekWithinBuffer(long pos) {
+        if (byteBufferLen <= 0 || pos < byteBufferStartPos || pos > byteBufferStartPos + byteBufferLen)
+            return false;
+        byteBufferIndex = (int) (pos - byteBufferStartPos);
+        bitBufferLen = 0;
+        resetCrcs();
+        return true;
+    }
+
     /** Either returns silently or throws an exception. */
     private void checkByteAligned() {
         if (bitBufferLen % 8 != 0)
@@ -126,6 +152,44 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
         return (readUint(n) << shift) >> shift;
     }
 
+    @Override
+    public void readSignedInts(int bits, long[] result, int start, int end) throws IOException {
+        if (bits < 0 || bits > 33)
+            throw new IllegalArgumentException();
+        if (start < 0 || start > end || end > result.length)
+            throw new IndexOutOfBoundsException();
+        if (bits == 0) {
+            Arrays.fill(result, start, end, 0);
+            return;
+        }
+        int shift = 64 - bits;
+        for (; start < end; start++) {
+            while (bitBufferLen < bits)
+                fillBitBuffer();
+            result[start] = (bitBuffer << (64 - bitBufferLen)) >> shift;
+            bitBufferLen -= bits;
+        }
+    }
+
+    @Override
+    public void readSignedInts(int bits, int[] result, int start, int end) throws IOException {
+        if (bits < 0 || bits > 32)
+            throw new IllegalArgumentException();
+        if (start < 0 || start > end || end > result.length)
+            throw new IndexOutOfBoundsException();
+        if (bits == 0) {
+            Arrays.fill(result, start, end, 0);
+            return;
+        }
+        int shift = 64 - bits;
+        for (; start < end; start++) {
+            while (bitBufferLen < bits)
+                fillBitBuffer();
+            result[start] = (int) ((bitBuffer << (64 - bitBufferLen)) >> shift);
+            bitBufferLen -= bits;
+        }
+    }
+
     @Override
     public void readRiceSignedInts(int param, long[] result, int start, int end) throws IOException {
         if (param < 0 || param > 31)
@@ -157,18 +221,14 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
             // Slow decoder
             if (start >= end)
                 break;
-            long val = 0;
-            while (readUint(1) == 0) {
-                if (val >= unaryLimit) {
-                    // At this point, the final decoded value would be so large that the result of the
-                    // downstream restoreLpc() calculation would not fit in the output sample's bit depth -
-                    // hence why we stop early and throw an exception. However, this check is conservative
-                    // and doesn't catch all the cases where the post-LPC result wouldn't fit.
-                    throw new DataFormatException("Residual value too large");
-                }
-                val++;
+            long val = readRiceUnsigned(param, unaryLimit);
+            if (val == -1) {
+                // At this point, the final decoded value would be so large that the result of the
+                // downstream restoreLpc() calculation would not fit in the output sample's bit depth -
+                // hence why we stop early and throw an exception. However, this check is conservative
+                // and doesn't catch all the cases where the post-LPC result wouldn't fit.
+                throw new DataFormatException("Residual value too large");
             }
-            val = (val << param) | readUint(param);  // Note: Long masking unnecessary because param <= 31
             assert (val >>> 53) == 0;  // Must fit a uint53 by design due to unaryLimit
             val = (val >>> 1) ^ -(val & 1);  // Transform uint53 to int53 according to Rice coding of signed numbers
             assert (val >> 52) == 0 || (val >> 52) == -1;  // Must fit a signed int53 by design
@@ -177,6 +237,74 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
         }
     }
 
+    @Override
+    public void readRiceSignedInts(int param, int[] result, int start, int end) throws IOException {
+        if (param < 0 || param > 31)
+            throw new IllegalArgumentException();
+        long unaryLimit = 0xFFFFFFFFL >>> param;
+
+        byte[] consumeTable = RICE_DECODING_CONSUMED_TABLES[param];
+        int[] valueTable = RICE_DECODING_VALUE_TABLES[param];
+        while (true) {
+            middle:
+            while (start <= end - RICE_DECODING_CHUNK) {
+                if (bitBufferLen < RICE_DECODING_CHUNK * RICE_DECODING_TABLE_BITS) {
+                    if (byteBufferIndex <= byteBufferLen - 8) {
+                        fillBitBuffer();
+                    } else
+                        break;
+                }
+                for (int i = 0; i < RICE_DECODING_CHUNK; i++, start++) {
+                    // Fast decoder
+                    int extractedBits = (int) (bitBuffer >>> (bitBufferLen - RICE_DECODING_TABLE_BITS)) & RICE_DECODING_TABLE_MASK;
+                    int consumed = consumeTable[extractedBits];
+                    if (consumed == 0)
+                        break middle;
+                    bitBufferLen -= consumed;
+                    result[start] = valueTable[extractedBits];
+                }
+            }
+
+            // Slow decoder
+            if (start >= end)
+                break;
+            long val = readRiceUnsigned(param, unaryLimit);
+            if (val == -1)  // The FLAC format limits residuals to signed int32
+                throw new DataFormatException("Residual value exceeds 32 bits");
+            assert (val >>> 32) == 0;  // Must fit a uint32 by design due to unaryLimit
+            result[start] = (int) (val >>> 1) ^ -(int) (val & 1);
+            start++;
+        }
+    }
+
+    /**
+     * Reads one Rice-coded unsigned integer with the given parameter, or returns -1 as soon as
+     * the unary part exceeds the given limit (instead of reading an unbounded number of zeros).
+     */
+    private long readRiceUnsigned(int param, long unaryLimit) throws IOException {
+        long val = 0;
+        while (true) {  // Count the unary zeros a buffered word at a time
+            if (bitBufferLen == 0)
+                fillBitBuffer();
+            int zeros = Long.numberOfLeadingZeros(bitBuffer << (64 - bitBufferLen));
+            if (zeros < bitBufferLen) {
+                val += zeros;
+                bitBufferLen -= zeros + 1;  // Also consume the terminating one bit
+                break;
+            }
+            val += bitBufferLen;
+            bitBufferLen = 0;
+            if (val > unaryLimit)
+                break;
+        }
+        if (val > unaryLimit)
+            return -1;
+        while (bitBufferLen < param)
+            fillBitBuffer();
+        bitBufferLen -= param;
+        return (val << param) | ((bitBuffer >>> bitBufferLen) & ((1L << param) - 1));
+    }
+
     /** Appends at least 8 bits to the bit buffer, or throws EOFException. */
     private void fillBitBuffer() throws IOException {
         int i = byteBufferIndex;
@@ -214,8 +342,20 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
     public void readFully(byte[] b) throws IOException {
         Objects.requireNonNull(b);
         checkByteAligned();
-        for (int i = 0; i < b.length; i++)
-            b[i] = (byte) readUint(8);
+        int off = 0;
+        for (; off < b.length && bitBufferLen >= 8; off++)  // Whole bytes left in the bit buffer come first
+            b[off] = (byte) readUint(8);
+        while (off < b.length) {  // Then copy straight from the byte buffer, refilling it as needed
+            int temp = readUnderlying();
+            if (temp == -1)
+                throw new EOFException();
+            b[off] = (byte) temp;
+            off++;
+            int n = Math.min(b.length - off, byteBufferLen - byteBufferIndex);
+            System.arraycopy(byteBuffer, byteBufferIndex, b, off, n);
+            byteBufferIndex += n;
+            off += n;
+        }
     }
 
     /** Reads a byte from the byte buffer (if available) or from the underlying stream, returning either an uint8 or -1. */
@@ -274,13 +414,8 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
     /** Updates the two CRC values with data in byteBuffer[crcStartIndex : byteBufferIndex - unusedTrailingBytes]. */
     private void updateCrcs(int unusedTrailingBytes) {
         int end = byteBufferIndex - unusedTrailingBytes;
-        for (int i = crcStartIndex; i < end; i++) {
-            int b = byteBuffer[i] & 0xFF;
-            crc8 = CRC8_TABLE[crc8 ^ b] & 0xFF;
-            crc16 = CRC16_TABLE[(crc16 >>> 8) ^ b] ^ ((crc16 & 0xFF) << 8);
-            assert (crc8 >>> 8) == 0;
-            assert (crc16 >>> 16) == 0;
-        }
+        crc8 = Crc.updateCrc8(crc8, byteBuffer, crcStartIndex, end - crcStartIndex);
+        crc16 = Crc.updateCrc16(crc16, byteBuffer, crcStartIndex, end - crcStartIndex);
         crcStartIndex = end;
     }
 
@@ -304,13 +439,16 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
 
     // Tables of constants
 
+    /** The size of the read buffer when not specified by the subclass. */
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+
     // For Rice decoding
 
     /** Configurable, must be positive */
     private static final int RICE_DECODING_TABLE_BITS = 13;
     private static final int RICE_DECODING_TABLE_MASK = (1 << RICE_DECODING_TABLE_BITS) - 1;
-    private static final byte[][] RICE_DECODING_CONSUMED_TABLES = new byte[31][1 << RICE_DECODING_TABLE_BITS];
-    private static final int[][] RICE_DECODING_VALUE_TABLES = new int[31][1 << RICE_DECODING_TABLE_BITS];
+    private static final byte[][] RICE_DECODING_CONSUMED_TABLES = new byte[32][1 << RICE_DECODING_TABLE_BITS];
+    private static final int[][] RICE_DECODING_VALUE_TABLES = new int[32][1 << RICE_DECODING_TABLE_BITS];
     /** Configurable, must be positive, and RICE_DECODING_CHUNK * RICE_DECODING_TABLE_BITS <= 64 */
     private static final int RICE_DECODING_CHUNK = 4;
 
@@ -333,22 +471,4 @@ public abstract class AbstractFlacLowLevelInput implements FlacLowLevelInput {
                 throw new AssertionError();
         }
     }
-
-    // For CRC calculations
-
-    private static byte[] CRC8_TABLE = new byte[256];
-    private static char[] CRC16_TABLE = new char[256];
-
-    static {
-        for (int i = 0; i < CRC8_TABLE.length; i++) {
-            int temp8 = i;
-            int temp16 = i << 8;
-            for (int j = 0; j < 8; j++) {
-                temp8 = (temp8 << 1) ^ ((temp8 >>> 7) * 0x107);
-                temp16 = (temp16 << 1) ^ ((temp16 >>> 15) * 0x18005);
-            }
-            CRC8_TABLE[i] = (byte) temp8;
-            CRC16_TABLE[i] = (char) temp16;
-        }
-    }
 }
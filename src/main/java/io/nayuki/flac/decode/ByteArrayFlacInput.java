@@ -53,6 +53,8 @@ public final class ByteArrayFlacInput extends AbstractFlacLowLevelInput {
 
     @Override
     public void seekTo(long pos) {
+        if (seekWithinBuffer(pos))
+            return;
         offset = (int) pos;
         positionChanged(pos);
     }
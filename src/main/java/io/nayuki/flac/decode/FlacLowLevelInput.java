@@ -77,6 +77,39 @@ public interface FlacLowLevelInput extends AutoCloseable {
     /** Reads the next given number of bits (0 <= n <= 32) as an signed integer (i.e. sign-extended to int32). */
     int readSignedInt(int n) throws IOException;
 
+    /**
+     * Reads the next (end - start) fixed-width signed integers of the given number of bits (0 <= bits <= 33)
+     * each, storing them sign-extended into result[start : end]. This is equivalent to repeatedly calling
+     * readSignedInt(), except that a width of 33 bits is allowed, as needed for the side channel of 32-bit audio.
+     * The default implementation does exactly that; implementations should override it with a faster one.
+     */
+    default void readSignedInts(int bits, long[] result, int start, int end) throws IOException {
+        if (bits < 0 || bits > 33)
+            throw new IllegalArgumentException();
+        if (start < 0 || start > end || end > result.length)
+            throw new IndexOutOfBoundsException();
+        for (; start < end; start++) {
+            if (bits <= 32)
+                result[start] = readSignedInt(bits);
+            else
+                result[start] = (long) readSignedInt(1) << 32 | (readUint(32) & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Reads the next (end - start) fixed-width signed integers of the given number of bits (0 <= bits <= 32)
+     * each, storing them sign-extended into result[start : end]. This is equivalent to repeatedly calling readSignedInt().
+     * The default implementation does exactly that; implementations should override it with a faster one.
+     */
+    default void readSignedInts(int bits, int[] result, int start, int end) throws IOException {
+        if (bits < 0 || bits > 32)
+            throw new IllegalArgumentException();
+        if (start < 0 || start > end || end > result.length)
+            throw new IndexOutOfBoundsException();
+        for (; start < end; start++)
+            result[start] = readSignedInt(bits);
+    }
+
     /**
      * Reads and decodes the next batch of Rice-coded signed integers. Note that any Rice-coded integer might read a large
      * number of bits from the underlying stream (but not in practice because it would be a very inefficient encoding).
@@ -85,6 +118,30 @@ public interface FlacLowLevelInput extends AutoCloseable {
      */
     void readRiceSignedInts(int param, long[] result, int start, int end) throws IOException;
 
+    /**
+     * Reads and decodes the next batch of Rice-coded signed integers like the method above, but throws
+     * DataFormatException for a value that doesn't fit into a signed int32, which the FLAC format forbids for residuals.
+     * FrameDecoder uses this for streams of up to 24 bits per sample, whose samples it keeps in ints.
+     * The default implementation reads one bit at a time; implementations should override it with a faster one.
+     */
+    default void readRiceSignedInts(int param, int[] result, int start, int end) throws IOException {
+        if (param < 0 || param > 31)
+            throw new IllegalArgumentException();
+        if (start < 0 || start > end || end > result.length)
+            throw new IndexOutOfBoundsException();
+        long unaryLimit = 0xFFFFFFFFL >>> param;
+        for (; start < end; start++) {
+            long val = 0;
+            while (readUint(1) == 0) {
+                val++;
+                if (val > unaryLimit)  // The FLAC format limits residuals to signed int32
+                    throw new DataFormatException("Residual value exceeds 32 bits");
+            }
+            val = (val << param) | readUint(param);
+            result[start] = (int) (val >>> 1) ^ -(int) (val & 1);
+        }
+    }
+
     // Reading bytes
 
     /**
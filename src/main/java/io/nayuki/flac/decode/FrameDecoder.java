@@ -54,20 +54,16 @@ public final class FrameDecoder {
     public int expectedSampleDepth;
 
     /**
-     * Temporary arrays to hold two decoded audio channels (a.k.a. subframes). They have int64 range
-     * because the worst case of 32-bit audio encoded in stereo side mode uses signed 33 bits.
-     * The maximum possible block size is either 65536 samples per channel from the
-     * frame header logic, or 65535 from a strict reading of the FLAC specification.
-     * Two buffers are needed for stereo coding modes, but not more than two because
-     * all other multi-channel audio is processed independently per channel.
+     * The subframe parameters, warm-up samples and residuals of the current frame, between the two stages of
+     * decoding. For 32-bit audio the data arrays have int64 range because the worst case encoded in stereo side
+     * mode uses signed 33 bits, and because residuals can be up to signed 53 bits; otherwise int arrays are used.
      */
-    private long[] temp0;
-    private long[] temp1;
+    private final ParsedFrame parsed;
 
     /**
      * The number of samples (per channel) in the current block/frame being processed.
-     * This value is only valid while the method readFrame() is on the call stack.
-     * When readFrame() is active, this value is in the range [1, 65536].
+     * This value is only valid while the method parseFrame() is on the call stack.
+     * When parseFrame() is active, this value is in the range [1, 65536].
      */
     private int currentBlockSize;
 
@@ -80,8 +76,7 @@ public final class FrameDecoder {
     public FrameDecoder(FlacLowLevelInput in, int expectDepth) {
         this.in = in;
         expectedSampleDepth = expectDepth;
-        temp0 = new long[65536];
-        temp1 = new long[65536];
+        parsed = new ParsedFrame();
         currentBlockSize = -1;
     }
 
@@ -96,10 +91,27 @@ public final class FrameDecoder {
      * may have up to 8 channels and 65536 samples, so the output arrays need to be sized appropriately.
      */
     public FrameInfo readFrame(int[][] outSamples, int outOffset) throws IOException {
+        FrameInfo meta = parseFrame(parsed);
+        if (meta == null)  // EOF occurred cleanly
+            return null;
+        reconstructFrame(parsed, expectedSampleDepth, outSamples, outOffset);
+        return meta;
+    }
+
+    /**
+     * Performs the first stage of decoding: reads the next frame from the current bit input stream, including
+     * the Rice-coded residuals and the CRC-16 footer, into the given object, and returns a new metadata object
+     * (which is also stored in the given object). Returns null if EOF is encountered before any bytes were read.
+     * No prediction is undone, so reconstructFrame() must then be called to get the audio samples.
+     */
+    FrameInfo parseFrame(ParsedFrame frame) throws IOException {
         // Check field states
         Objects.requireNonNull(in);
+        Objects.requireNonNull(frame);
         if (currentBlockSize != -1)
             throw new IllegalStateException("Concurrent call");
+        if (expectedSampleDepth < 1 || expectedSampleDepth > 32)
+            throw new IllegalStateException();
 
         // Parse the frame header to see if one is available
         long startByte = in.getPosition();
@@ -108,19 +120,20 @@ public final class FrameDecoder {
             return null;
         if (meta.sampleDepth != -1 && meta.sampleDepth != expectedSampleDepth)
             throw new DataFormatException("Sample depth mismatch");
-
-        // Check arguments and read frame header
         currentBlockSize = meta.blockSize;
-        Objects.requireNonNull(outSamples);
-        if (outOffset < 0 || outOffset > outSamples[0].length)
-            throw new IndexOutOfBoundsException();
-        if (outSamples.length < meta.numChannels)
-            throw new IllegalArgumentException("Output array too small for number of channels");
-        if (outOffset > outSamples[0].length - currentBlockSize)
-            throw new IndexOutOfBoundsException();
+        frame.useInts = expectedSampleDepth <= MAX_INT_SAMPLE_DEPTH;
 
-        // Do the hard work
-        decodeSubframes(expectedSampleDepth, meta.channelAssignment, outSamples, outOffset);
+        // Read each subframe
+        int chanAsgn = meta.channelAssignment;
+        if (0 <= chanAsgn && chanAsgn <= 7) {
+            for (int ch = 0; ch <= chanAsgn; ch++)
+                parseSubframe(expectedSampleDepth, frame, ch);
+        } else if (8 <= chanAsgn && chanAsgn <= 10) {
+            // Side channel has one more bit
+            parseSubframe(expectedSampleDepth + (chanAsgn == 9 ? 1 : 0), frame, 0);
+            parseSubframe(expectedSampleDepth + (chanAsgn == 9 ? 0 : 1), frame, 1);
+        } else  // 11 <= channelAssignment <= 15
+            throw new DataFormatException("Reserved channel assignment");
 
         // Read padding and footer
         if (in.readUint((8 - in.getBitPosition()) % 8) != 0)
@@ -136,90 +149,95 @@ public final class FrameDecoder {
         if ((int) frameSize != frameSize)
             throw new DataFormatException("Frame size too large");
         meta.frameSize = (int) frameSize;
+        frame.info = meta;
         currentBlockSize = -1;
         return meta;
     }
 
+    private static final SampleKernels KERNELS = SampleKernels.getInstance();
+
+    /**
+     * Streams of up to this many bits per sample are decoded with int arrays and arithmetic (mostly),
+     * which halves the memory traffic. Their side channels and residuals need at most 25 and 32 bits.
+     */
+    private static final int MAX_INT_SAMPLE_DEPTH = 24;
+
     /**
-     * Based on the current bit input stream and the two given arguments, this method reads and decodes
-     * each subframe, performs stereo decoding if applicable, and writes the final uncompressed audio data
-     * to the array range outSamples[0 : numChannels][outOffset : outOffset + currentBlockSize].
-     * Note that this method uses the private temporary arrays and passes them into sub-method calls.
+     * Performs the second stage of decoding on the given frame from parseFrame(): undoes the prediction of each subframe
+     * (in place, so this can be called only once per parse), performs stereo decoding if applicable, and writes the final
+     * uncompressed audio data to the array range outSamples[0 : numChannels][outOffset : outOffset + blockSize].
+     * This uses no decoder state, so it can run on a different thread than the one parsing the next frame.
      */
-    private void decodeSubframes(int sampleDepth, int chanAsgn, int[][] outSamples, int outOffset) throws IOException {
+    static void reconstructFrame(ParsedFrame frame, int sampleDepth, int[][] outSamples, int outOffset) {
         // Check arguments
-        if (sampleDepth < 1 || sampleDepth > 32)
-            throw new IllegalArgumentException();
-        if ((chanAsgn >>> 4) != 0)
-            throw new IllegalArgumentException();
+        FrameInfo meta = frame.info;
+        int blockSize = meta.blockSize;
+        Objects.requireNonNull(outSamples);
+        if (outOffset < 0 || outOffset > outSamples[0].length)
+            throw new IndexOutOfBoundsException();
+        if (outSamples.length < meta.numChannels)
+            throw new IllegalArgumentException("Output array too small for number of channels");
+        if (outOffset > outSamples[0].length - blockSize)
+            throw new IndexOutOfBoundsException();
 
-        if (0 <= chanAsgn && chanAsgn <= 7) {
-            // Handle 1 to 8 independently coded channels
-            int numChannels = chanAsgn + 1;
-            for (int ch = 0; ch < numChannels; ch++) {
-                decodeSubframe(sampleDepth, temp0);
-                int[] outChan = outSamples[ch];
-                for (int i = 0; i < currentBlockSize; i++)
-                    outChan[outOffset + i] = checkBitDepth(temp0[i], sampleDepth);
-            }
+        for (int ch = 0; ch < meta.numChannels; ch++)
+            restoreSubframe(frame, ch, blockSize);
 
-        } else if (8 <= chanAsgn && chanAsgn <= 10) {
-            // Handle one of the side-coded stereo methods
-            decodeSubframe(sampleDepth + (chanAsgn == 9 ? 1 : 0), temp0);
-            decodeSubframe(sampleDepth + (chanAsgn == 9 ? 0 : 1), temp1);
-
-            if (chanAsgn == 8) {  // Left-side stereo
-                for (int i = 0; i < currentBlockSize; i++)
-                    temp1[i] = temp0[i] - temp1[i];
-            } else if (chanAsgn == 9) {  // Side-right stereo
-                for (int i = 0; i < currentBlockSize; i++)
-                    temp0[i] += temp1[i];
-            } else if (chanAsgn == 10) {  // Mid-side stereo
-                for (int i = 0; i < currentBlockSize; i++) {
-                    long side = temp1[i];
-                    long right = temp0[i] - (side >> 1);
-                    temp1[i] = right;
-                    temp0[i] = right + side;
-                }
-            } else
-                throw new AssertionError();
-
-            // Copy data from temporary to output arrays, and convert from long to int
-            int[] outLeft = outSamples[0];
-            int[] outRight = outSamples[1];
-            for (int i = 0; i < currentBlockSize; i++) {
-                outLeft[outOffset + i] = checkBitDepth(temp0[i], sampleDepth);
-                outRight[outOffset + i] = checkBitDepth(temp1[i], sampleDepth);
-            }
-        } else  // 11 <= channelAssignment <= 15
-            throw new DataFormatException("Reserved channel assignment");
+        // Handle one of the side-coded stereo methods
+        int chanAsgn = meta.channelAssignment;
+        if (8 <= chanAsgn && chanAsgn <= 10) {
+            if (frame.useInts)
+                decodeStereo(chanAsgn, frame.intData[0], frame.intData[1], blockSize);
+            else
+                decodeStereo(chanAsgn, frame.data[0], frame.data[1], blockSize);
+        }
+
+        // Copy data from temporary to output arrays, converting from long to int if needed
+        for (int ch = 0; ch < meta.numChannels; ch++) {
+            if (frame.useInts)
+                KERNELS.narrow(frame.intData[ch], outSamples[ch], outOffset, blockSize, sampleDepth);
+            else
+                KERNELS.narrow(frame.data[ch], outSamples[ch], outOffset, blockSize, sampleDepth);
+        }
     }
 
-    /**
-     * Checks that 'val' is a signed 'depth'-bit integer, and either returns the
-     * value downcasted to an int or throws an exception if it's out of range.
-     * Note that depth must be in the range [1, 32] because the return value is an int.
-     * For example when depth = 16, the range of valid values is [-32768, 32767].
-     */
-    private static int checkBitDepth(long val, int depth) {
-        assert 1 <= depth && depth <= 32;
-        // Equivalent check: (val >> (depth - 1)) == 0 || (val >> (depth - 1)) == -1
-        if (val >> (depth - 1) == val >> depth)
-            return (int) val;
+    private static void decodeStereo(int chanAsgn, long[] temp0, long[] temp1, int blockSize) {
+        if (chanAsgn == 8)  // Left-side stereo
+            KERNELS.leftSide(temp0, temp1, blockSize);
+        else if (chanAsgn == 9)  // Side-right stereo
+            KERNELS.sideRight(temp0, temp1, blockSize);
+        else if (chanAsgn == 10)  // Mid-side stereo
+            KERNELS.midSide(temp0, temp1, blockSize);
+        else
+            throw new AssertionError();
+    }
+
+    private static void decodeStereo(int chanAsgn, int[] temp0, int[] temp1, int blockSize) {
+        if (chanAsgn == 8)  // Left-side stereo
+            KERNELS.leftSide(temp0, temp1, blockSize);
+        else if (chanAsgn == 9)  // Side-right stereo
+            KERNELS.sideRight(temp0, temp1, blockSize);
+        else if (chanAsgn == 10)  // Mid-side stereo
+            KERNELS.midSide(temp0, temp1, blockSize);
         else
-            throw new IllegalArgumentException(val + " is not a signed " + depth + "-bit value");
+            throw new AssertionError();
     }
 
     /**
-     * Reads one subframe from the bit input stream, decodes it, and writes to result[0 : currentBlockSize].
+     * Reads one subframe from the bit input stream into the given channel of the given frame: its parameters,
+     * and its raw or warm-up samples and residuals in frame.data[ch] or frame.intData[ch], in [0 : currentBlockSize].
      */
-    private void decodeSubframe(int sampleDepth, long[] result) throws IOException {
+    private void parseSubframe(int sampleDepth, ParsedFrame frame, int ch) throws IOException {
         // Check arguments
-        Objects.requireNonNull(result);
         if (sampleDepth < 1 || sampleDepth > 33)
             throw new IllegalArgumentException();
-        if (result.length < currentBlockSize)
-            throw new IllegalArgumentException();
+        if (frame.useInts) {
+            if (frame.intData[ch] == null || frame.intData[ch].length < currentBlockSize)
+                frame.intData[ch] = new int[currentBlockSize];
+        } else {
+            if (frame.data[ch] == null || frame.data[ch].length < currentBlockSize)
+                frame.data[ch] = new long[currentBlockSize];
+        }
 
         // Read header fields
         if (in.readUint(1) != 0)
@@ -236,47 +254,72 @@ public final class FrameDecoder {
         if (!(0 <= shift && shift <= sampleDepth))
             throw new AssertionError();
         sampleDepth -= shift;
+        frame.types[ch] = type;
+        frame.wastedBits[ch] = shift;
+        frame.depths[ch] = sampleDepth;
 
         // Read sample data based on type
         if (type == 0)  // Constant coding
-            Arrays.fill(result, 0, currentBlockSize, in.readSignedInt(sampleDepth));
-        else if (type == 1) {  // Verbatim coding
-            for (int i = 0; i < currentBlockSize; i++)
-                result[i] = in.readSignedInt(sampleDepth);
-        } else if (8 <= type && type <= 12)
-            decodeFixedPredictionSubframe(type - 8, sampleDepth, result);
+            readSamples(sampleDepth, frame, ch, 0, 1);
+        else if (type == 1)  // Verbatim coding
+            readSamples(sampleDepth, frame, ch, 0, currentBlockSize);
+        else if (8 <= type && type <= 12)
+            parseFixedPredictionSubframe(type - 8, sampleDepth, frame, ch);
         else if (32 <= type && type <= 63)
-            decodeLinearPredictiveCodingSubframe(type - 31, sampleDepth, result);
+            parseLinearPredictiveCodingSubframe(type - 31, sampleDepth, frame, ch);
         else
             throw new DataFormatException("Reserved subframe type");
+    }
 
-        // Add trailing zeros to each sample
-        if (shift > 0) {
-            for (int i = 0; i < currentBlockSize; i++)
-                result[i] <<= shift;
+    /**
+     * Undoes the coding of the given channel of the given frame in place, so that
+     * frame.data[ch] or frame.intData[ch] holds the decoded samples in [0 : blockSize].
+     */
+    private static void restoreSubframe(ParsedFrame frame, int ch, int blockSize) {
+        int type = frame.types[ch];
+        int depth = frame.depths[ch];
+        int shift = frame.wastedBits[ch];
+        if (frame.useInts) {
+            int[] result = frame.intData[ch];
+            if (type == 0)  // Constant coding
+                Arrays.fill(result, 1, blockSize, result[0]);
+            else if (8 <= type && type <= 12)  // Fixed prediction
+                LpcKernels.restoreFixed(result, type - 8, depth, blockSize);
+            else if (32 <= type && type <= 63)  // LPC
+                LpcKernels.restoreLpc(result, frame.coefs[ch], depth, frame.lpcShifts[ch], blockSize);
+            if (shift > 0)  // Add trailing zeros to each sample
+                KERNELS.shiftLeft(result, blockSize, shift);
+        } else {
+            long[] result = frame.data[ch];
+            if (type == 0)  // Constant coding
+                Arrays.fill(result, 1, blockSize, result[0]);
+            else if (8 <= type && type <= 12)  // Fixed prediction
+                LpcKernels.restoreFixed(result, type - 8, depth, blockSize);
+            else if (32 <= type && type <= 63)  // LPC
+                restoreLpc(result, frame.coefs[ch], depth, frame.lpcShifts[ch], blockSize);
+            if (shift > 0)  // Add trailing zeros to each sample
+                KERNELS.shiftLeft(result, blockSize, shift);
         }
     }
 
     /**
-     * Reads from the input stream, performs computation, and writes to result[0 : currentBlockSize].
+     * Reads the warm-up samples and residuals from the input stream into the given channel of the given frame,
+     * and sets the frame's coefficients for the given order.
      */
-    private void decodeFixedPredictionSubframe(int predOrder, int sampleDepth, long[] result) throws IOException {
+    private void parseFixedPredictionSubframe(int predOrder, int sampleDepth, ParsedFrame frame, int ch) throws IOException {
         // Check arguments
-        Objects.requireNonNull(result);
         if (sampleDepth < 1 || sampleDepth > 33)
             throw new IllegalArgumentException();
         if (predOrder < 0 || predOrder >= FIXED_PREDICTION_COEFFICIENTS.length)
             throw new IllegalArgumentException();
         if (predOrder > currentBlockSize)
             throw new DataFormatException("Fixed prediction order exceeds block size");
-        if (result.length < currentBlockSize)
-            throw new IllegalArgumentException();
 
         // Read and compute various values
-        for (int i = 0; i < predOrder; i++)  // Non-Rice-coded warm-up samples
-            result[i] = in.readSignedInt(sampleDepth);
-        readResiduals(predOrder, result);
-        restoreLpc(result, FIXED_PREDICTION_COEFFICIENTS[predOrder], sampleDepth, 0);
+        readSamples(sampleDepth, frame, ch, 0, predOrder);  // Non-Rice-coded warm-up samples
+        readResiduals(predOrder, frame, ch);
+        frame.coefs[ch] = FIXED_PREDICTION_COEFFICIENTS[predOrder];
+        frame.lpcShifts[ch] = 0;
     }
 
     private static final int[][] FIXED_PREDICTION_COEFFICIENTS = {
@@ -288,23 +331,20 @@ public final class FrameDecoder {
     };
 
     /**
-     * Reads from the input stream, performs computation, and writes to result[0 : currentBlockSize].
+     * Reads the warm-up samples, LPC parameters and residuals from the input stream
+     * into the given channel of the given frame.
      */
-    private void decodeLinearPredictiveCodingSubframe(int lpcOrder, int sampleDepth, long[] result) throws IOException {
+    private void parseLinearPredictiveCodingSubframe(int lpcOrder, int sampleDepth, ParsedFrame frame, int ch) throws IOException {
         // Check arguments
-        Objects.requireNonNull(result);
         if (sampleDepth < 1 || sampleDepth > 33)
             throw new IllegalArgumentException();
         if (lpcOrder < 1 || lpcOrder > 32)
             throw new IllegalArgumentException();
         if (lpcOrder > currentBlockSize)
             throw new DataFormatException("LPC order exceeds block size");
-        if (result.length < currentBlockSize)
-            throw new IllegalArgumentException();
 
         // Read non-Rice-coded warm-up samples
-        for (int i = 0; i < lpcOrder; i++)
-            result[i] = in.readSignedInt(sampleDepth);
+        readSamples(sampleDepth, frame, ch, 0, lpcOrder);
 
         // Read parameters for the LPC coefficients
         int precision = in.readUint(4) + 1;
@@ -319,14 +359,16 @@ public final class FrameDecoder {
         for (int i = 0; i < coefs.length; i++)
             coefs[i] = in.readSignedInt(precision);
 
-        // Perform the main LPC decoding
-        readResiduals(lpcOrder, result);
-        restoreLpc(result, coefs, sampleDepth, shift);
+        // Read the residuals, leaving the prediction to the second stage
+        readResiduals(lpcOrder, frame, ch);
+        frame.coefs[ch] = coefs;
+        frame.lpcShifts[ch] = shift;
     }
 
     /**
-     * Updates the values of result[coefs.length : currentBlockSize] according to linear predictive coding.
-     * This method reads all the arguments and the field currentBlockSize, only writes to result, and has no other side effects.
+     * Updates the values of result[coefs.length : blockSize] according to linear predictive coding. This is the general
+     * code for any predictor order and sample depth; the common cases are handled faster by LpcKernels.
+     * This method reads all the arguments, only writes to result, and has no other side effects.
      * After this method returns, every value in result must fit in a signed sampleDepth-bit integer.
      * The largest allowed sample depth is 33, hence the largest absolute value allowed in the result is 2^32.
      * During the LPC restoration process, the prefix of result before index i consists of entirely int33 values.
@@ -336,11 +378,11 @@ public final class FrameDecoder {
      * such that the post-LPC result fits in a signed int33, is 2^51 + 2^32 which also fits in a signed int53.
      * Therefore a residue that is larger than a signed int53 will necessarily not fit in the int33 result and is wrong.
      */
-    private void restoreLpc(long[] result, int[] coefs, int sampleDepth, int shift) {
+    private static void restoreLpc(long[] result, int[] coefs, int sampleDepth, int shift, int blockSize) {
         // Check and handle arguments
         Objects.requireNonNull(result);
         Objects.requireNonNull(coefs);
-        if (result.length < currentBlockSize)
+        if (result.length < blockSize)
             throw new IllegalArgumentException();
         if (sampleDepth < 1 || sampleDepth > 33)
             throw new IllegalArgumentException();
@@ -349,7 +391,7 @@ public final class FrameDecoder {
         long lowerBound = (long) (-1) << (sampleDepth - 1);
         long upperBound = -(lowerBound + 1);
 
-        for (int i = coefs.length; i < currentBlockSize; i++) {
+        for (int i = coefs.length; i < blockSize; i++) {
             long sum = 0;
             for (int j = 0; j < coefs.length; j++)
                 sum += result[i - 1 - j] * coefs[j];
@@ -363,17 +405,25 @@ public final class FrameDecoder {
         }
     }
 
+    /** Reads fixed-width signed integers from the input stream into the given channel of the given frame in [start : end]. */
+    private void readSamples(int bits, ParsedFrame frame, int ch, int start, int end) throws IOException {
+        if (frame.useInts)
+            in.readSignedInts(bits, frame.intData[ch], start, end);
+        else
+            in.readSignedInts(bits, frame.data[ch], start, end);
+    }
+
     /**
-     * Reads metadata and Rice-coded numbers from the input stream, storing them in result[warmup : currentBlockSize].
-     * The stored numbers are guaranteed to fit in a signed int53 - see the explanation in restoreLpc().
+     * Reads metadata and Rice-coded numbers from the input stream, storing them into the given channel of the given frame
+     * in [warmup : currentBlockSize]. The stored numbers are guaranteed to fit in a signed int53 - see the explanation
+     * in restoreLpc() - or in a signed int32 if the frame uses ints.
      */
-    private void readResiduals(int warmup, long[] result) throws IOException {
+    private void readResiduals(int warmup, ParsedFrame frame, int ch) throws IOException {
         // Check and handle arguments
-        Objects.requireNonNull(result);
         if (warmup < 0 || warmup > currentBlockSize)
             throw new IllegalArgumentException();
-        if (result.length < currentBlockSize)
-            throw new IllegalArgumentException();
+        int[] intResult = frame.useInts ? frame.intData[ch] : null;
+        long[] result = frame.useInts ? null : frame.data[ch];
 
         int method = in.readUint(2);
         if (method >= 2)
@@ -392,12 +442,15 @@ public final class FrameDecoder {
             int param = in.readUint(paramBits);
             if (param == escapeParam) {
                 int numBits = in.readUint(5);
-                for (; resultIndex < partEnd; resultIndex++)
-                    result[resultIndex] = in.readSignedInt(numBits);
-            } else {
+                if (intResult != null)
+                    in.readSignedInts(numBits, intResult, resultIndex, partEnd);
+                else
+                    in.readSignedInts(numBits, result, resultIndex, partEnd);
+            } else if (intResult != null)
+                in.readRiceSignedInts(param, intResult, resultIndex, partEnd);
+            else
                 in.readRiceSignedInts(param, result, resultIndex, partEnd);
-                resultIndex = partEnd;
-            }
+            resultIndex = partEnd;
         }
     }
 }
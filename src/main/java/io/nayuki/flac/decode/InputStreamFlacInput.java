@@ -0,0 +1,82 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+
+/**
+ * A FLAC input stream based on a sequential {@link InputStream}, such as a network stream or
+ * the source stream of a Java Sound conversion. The data is consumed as it is decoded, so
+ * memory usage does not depend on the length of the stream. Seeking is not supported.
+ */
+public final class InputStreamFlacInput extends AbstractFlacLowLevelInput {
+
+    // Fields
+
+    /** The underlying byte-based input stream to read from. */
+    private InputStream in;
+
+    // Constructors
+
+    public InputStreamFlacInput(InputStream in) {
+        super();
+        this.in = Objects.requireNonNull(in);
+    }
+
+    /** Constructs an input for the given stream with a read buffer of the given size in bytes. */
+    public InputStreamFlacInput(InputStream in, int bufferSize) {
+        super(bufferSize);
+        this.in = Objects.requireNonNull(in);
+    }
+
+    // Methods
+
+    /** Always throws UnsupportedOperationException, because the length of a sequential stream is unknown. */
+    @Override
+    public long getLength() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Always throws UnsupportedOperationException, because a sequential stream cannot seek. */
+    @Override
+    public void seekTo(long pos) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected int readUnderlying(byte[] buf, int off, int len) throws IOException {
+        return in.read(buf, off, len);
+    }
+
+    /** Closes the underlying input stream. */
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+
+/**
+ * Kernels that undo fixed prediction and LPC in place, specialized by predictor order so that the coefficients and
+ * the previous samples stay in local variables, and the JIT compiler can pipeline the multiply-adds of each sample.
+ * Unlike FrameDecoder.restoreLpc(), the kernels check the bit depth of the results with a branch-free accumulation,
+ * and throw after the block instead of at the first bad sample (the values in between are then meaningless).
+ * LPC is restored here only for int samples; 32-bit streams use the general code in FrameDecoder.
+ * A helper class for FrameDecoder.
+ */
+final class LpcKernels {
+
+    // Static functions
+
+    /**
+     * Updates the values of result[order : blockSize] according to the fixed predictor of the given order
+     * (0 to 4), and checks that every value in result[0 : blockSize] fits in a signed sampleDepth-bit integer.
+     * The sample depth can be up to 33 because the predictions use only int64 additions and small multiples.
+     */
+    public static void restoreFixed(long[] result, int order, int sampleDepth, int blockSize) {
+        if (sampleDepth < 1 || sampleDepth > 33 || order < 0 || order > 4 || order > blockSize)
+            throw new IllegalArgumentException();
+        long lowerBound = (long) (-1) << (sampleDepth - 1);
+        long bad = 0;
+        switch (order) {
+            case 0 -> {
+                for (int i = 0; i < blockSize; i++)
+                    bad |= (result[i] - lowerBound) >>> sampleDepth;
+            }
+            case 1 -> {
+                long x0 = result[0];
+                for (int i = 1; i < blockSize; i++) {
+                    long val = result[i] + x0;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = val;
+                    x0 = val;
+                }
+            }
+            case 2 -> {
+                long x0 = result[1], x1 = result[0];
+                for (int i = 2; i < blockSize; i++) {
+                    long val = result[i] + 2 * x0 - x1;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = val;
+                    x1 = x0;
+                    x0 = val;
+                }
+            }
+            case 3 -> {
+                long x0 = result[2], x1 = result[1], x2 = result[0];
+                for (int i = 3; i < blockSize; i++) {
+                    long val = result[i] + 3 * (x0 - x1) + x2;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = val;
+                    x2 = x1;
+                    x1 = x0;
+                    x0 = val;
+                }
+            }
+            case 4 -> {
+                long x0 = result[3], x1 = result[2], x2 = result[1], x3 = result[0];
+                for (int i = 4; i < blockSize; i++) {
+                    long val = result[i] + 4 * (x0 + x2) - 6 * x1 - x3;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = val;
+                    x3 = x2;
+                    x2 = x1;
+                    x1 = x0;
+                    x0 = val;
+                }
+            }
+        }
+        if (bad != 0)
+            throw new DataFormatException("Post-LPC result exceeds bit depth");
+    }
+
+    /**
+     * Updates the values of result[order : blockSize] according to the fixed predictor of the given order
+     * (0 to 4), and checks that every value in result[0 : blockSize] fits in a signed sampleDepth-bit integer.
+     * This is the int sample version for a sample depth of up to 25, where the predictions fit in an int.
+     */
+    public static void restoreFixed(int[] result, int order, int sampleDepth, int blockSize) {
+        if (sampleDepth < 1 || sampleDepth > 25 || order < 0 || order > 4 || order > blockSize)
+            throw new IllegalArgumentException();
+        long lowerBound = (long) (-1) << (sampleDepth - 1);
+        long bad = 0;
+        switch (order) {
+            case 0 -> {
+                for (int i = 0; i < blockSize; i++)
+                    bad |= (result[i] - lowerBound) >>> sampleDepth;
+            }
+            case 1 -> {
+                int x0 = result[0];
+                for (int i = 1; i < blockSize; i++) {
+                    long val = (long) result[i] + x0;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = (int) val;
+                    x0 = (int) val;
+                }
+            }
+            case 2 -> {
+                int x0 = result[1], x1 = result[0];
+                for (int i = 2; i < blockSize; i++) {
+                    long val = (long) result[i] + 2 * x0 - x1;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = (int) val;
+                    x1 = x0;
+                    x0 = (int) val;
+                }
+            }
+            case 3 -> {
+                int x0 = result[2], x1 = result[1], x2 = result[0];
+                for (int i = 3; i < blockSize; i++) {
+                    long val = (long) result[i] + 3 * (x0 - x1) + x2;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = (int) val;
+                    x2 = x1;
+                    x1 = x0;
+                    x0 = (int) val;
+                }
+            }
+            case 4 -> {
+                int x0 = result[3], x1 = result[2], x2 = result[1], x3 = result[0];
+                for (int i = 4; i < blockSize; i++) {
+                    long val = (long) result[i] + 4 * (x0 + x2) - 6 * x1 - x3;
+                    bad |= (val - lowerBound) >>> sampleDepth;
+                    result[i] = (int) val;
+                    x3 = x2;
+                    x2 = x1;
+                    x1 = x0;
+                    x0 = (int) val;
+                }
+            }
+        }
+        if (bad != 0)
+            throw new DataFormatException("Post-LPC result exceeds bit depth");
+    }
+
+    /**
+     * Does the same as FrameDecoder.restoreLpc() on int samples, i.e. updates result[coefs.length : blockSize]
+     * according to linear predictive coding, for a sample depth of up to 25 bits (the side channel of 24-bit audio).
+     * If the predictor order is at most 12 and every prediction sum fits in a signed int32, that is sampleDepth - 1
+     * + (bit length of the largest coefficient magnitude) + ceil(log2(order)) <= 31, the sums are computed in int
+     * by an unrolled kernel; otherwise they are computed in long. The int sum bound relies on the preceding samples
+     * fitting in the sample depth, which is checked for the block as a whole (a wrapped sum only occurs after a bad sample).
+     */
+    public static void restoreLpc(int[] result, int[] coefs, int sampleDepth, int shift, int blockSize) {
+        int order = coefs.length;
+        if (sampleDepth < 1 || sampleDepth > 25 || shift < 0 || shift > 31 || result.length < blockSize || order > blockSize)
+            throw new IllegalArgumentException();
+        int maxCoef = 0;
+        for (int c : coefs)
+            maxCoef = Math.max(Math.abs(c), maxCoef);
+        int sumBits = sampleDepth - 1 + (32 - Integer.numberOfLeadingZeros(maxCoef))
+                + (32 - Integer.numberOfLeadingZeros(order - 1));
+
+        long lowerBound = (long) (-1) << (sampleDepth - 1);
+        long bad = switch (sumBits <= 31 && order <= MAX_UNROLLED_ORDER ? order : 0) {
+            case 1 -> restoreOrder1(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 2 -> restoreOrder2(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 3 -> restoreOrder3(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 4 -> restoreOrder4(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 5 -> restoreOrder5(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 6 -> restoreOrder6(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 7 -> restoreOrder7(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 8 -> restoreOrder8(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 9 -> restoreOrder9(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 10 -> restoreOrder10(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 11 -> restoreOrder11(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            case 12 -> restoreOrder12(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+            default -> restoreGeneral(result, coefs, shift, blockSize, lowerBound, sampleDepth);
+        };
+        if (bad != 0)
+            throw new DataFormatException("Post-LPC result exceeds bit depth");
+    }
+
+    // The kernels for restoreLpc(). Each returns nonzero if and only if some result is outside the sample depth.
+
+    private static long restoreGeneral(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        long bad = 0;
+        for (int i = coefs.length; i < blockSize; i++) {
+            long sum = 0;
+            for (int j = 0; j < coefs.length; j++)
+                sum += (long) result[i - 1 - j] * coefs[j];
+            long val = result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder1(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0];
+        int x0 = result[0];
+        long bad = 0;
+        for (int i = 1; i < blockSize; i++) {
+            int sum = c0 * x0;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder2(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1];
+        int x0 = result[1], x1 = result[0];
+        long bad = 0;
+        for (int i = 2; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder3(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2];
+        int x0 = result[2], x1 = result[1], x2 = result[0];
+        long bad = 0;
+        for (int i = 3; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder4(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3];
+        int x0 = result[3], x1 = result[2], x2 = result[1], x3 = result[0];
+        long bad = 0;
+        for (int i = 4; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder5(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3], c4 = coefs[4];
+        int x0 = result[4], x1 = result[3], x2 = result[2], x3 = result[1],
+                x4 = result[0];
+        long bad = 0;
+        for (int i = 5; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder6(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3], c4 = coefs[4], c5 = coefs[5];
+        int x0 = result[5], x1 = result[4], x2 = result[3], x3 = result[2],
+                x4 = result[1], x5 = result[0];
+        long bad = 0;
+        for (int i = 6; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4 + c5 * x5;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x5 = x4;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder7(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3], c4 = coefs[4], c5 = coefs[5], c6 = coefs[6];
+        int x0 = result[6], x1 = result[5], x2 = result[4], x3 = result[3],
+                x4 = result[2], x5 = result[1], x6 = result[0];
+        long bad = 0;
+        for (int i = 7; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4 + c5 * x5 + c6 * x6;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x6 = x5;
+            x5 = x4;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder8(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3],
+                c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7];
+        int x0 = result[7], x1 = result[6], x2 = result[5], x3 = result[4],
+                x4 = result[3], x5 = result[2], x6 = result[1], x7 = result[0];
+        long bad = 0;
+        for (int i = 8; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4 + c5 * x5 + c6 * x6 + c7 * x7;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x7 = x6;
+            x6 = x5;
+            x5 = x4;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder9(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3],
+                c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7],
+                c8 = coefs[8];
+        int x0 = result[8], x1 = result[7], x2 = result[6], x3 = result[5],
+                x4 = result[4], x5 = result[3], x6 = result[2], x7 = result[1],
+                x8 = result[0];
+        long bad = 0;
+        for (int i = 9; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4 + c5 * x5
+                    + c6 * x6 + c7 * x7 + c8 * x8;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x8 = x7;
+            x7 = x6;
+            x6 = x5;
+            x5 = x4;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder10(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3],
+                c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7],
+                c8 = coefs[8], c9 = coefs[9];
+        int x0 = result[9], x1 = result[8], x2 = result[7], x3 = result[6],
+                x4 = result[5], x5 = result[4], x6 = result[3], x7 = result[2],
+                x8 = result[1], x9 = result[0];
+        long bad = 0;
+        for (int i = 10; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4 + c5 * x5
+                    + c6 * x6 + c7 * x7 + c8 * x8 + c9 * x9;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x9 = x8;
+            x8 = x7;
+            x7 = x6;
+            x6 = x5;
+            x5 = x4;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder11(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3],
+                c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7],
+                c8 = coefs[8], c9 = coefs[9], c10 = coefs[10];
+        int x0 = result[10], x1 = result[9], x2 = result[8], x3 = result[7],
+                x4 = result[6], x5 = result[5], x6 = result[4], x7 = result[3],
+                x8 = result[2], x9 = result[1], x10 = result[0];
+        long bad = 0;
+        for (int i = 11; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4 + c5 * x5
+                    + c6 * x6 + c7 * x7 + c8 * x8 + c9 * x9 + c10 * x10;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x10 = x9;
+            x9 = x8;
+            x8 = x7;
+            x7 = x6;
+            x6 = x5;
+            x5 = x4;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    private static long restoreOrder12(int[] result, int[] coefs, int shift, int blockSize, long lowerBound, int sampleDepth) {
+        int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3],
+                c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7],
+                c8 = coefs[8], c9 = coefs[9], c10 = coefs[10], c11 = coefs[11];
+        int x0 = result[11], x1 = result[10], x2 = result[9], x3 = result[8],
+                x4 = result[7], x5 = result[6], x6 = result[5], x7 = result[4],
+                x8 = result[3], x9 = result[2], x10 = result[1], x11 = result[0];
+        long bad = 0;
+        for (int i = 12; i < blockSize; i++) {
+            int sum = c0 * x0 + c1 * x1 + c2 * x2 + c3 * x3 + c4 * x4 + c5 * x5
+                    + c6 * x6 + c7 * x7 + c8 * x8 + c9 * x9 + c10 * x10 + c11 * x11;
+            long val = (long) result[i] + (sum >> shift);
+            bad |= (val - lowerBound) >>> sampleDepth;
+            result[i] = (int) val;
+            x11 = x10;
+            x10 = x9;
+            x9 = x8;
+            x8 = x7;
+            x7 = x6;
+            x6 = x5;
+            x5 = x4;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = x0;
+            x0 = (int) val;
+        }
+        return bad;
+    }
+
+    // Constants
+
+    /** The largest predictor order with an unrolled kernel. Higher orders are rare and dominated by the sum itself. */
+    private static final int MAX_UNROLLED_ORDER = 12;
+}
@@ -0,0 +1,124 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+
+/**
+ * A FLAC input stream based on a memory-mapped local file. Refilling the read buffer is a copy
+ * from the mapping rather than a system call, and seeking only changes a position variable.
+ * Files larger than 2 GiB are supported by mapping them as several regions on demand.
+ */
+public final class MappedFlacInput extends AbstractFlacLowLevelInput {
+
+    // Constants
+
+    /** The size of each mapped region, which must be a power of 2 that fits in an int. */
+    private static final int REGION_BITS = 30;
+    private static final long REGION_SIZE = 1L << REGION_BITS;
+
+    // Fields
+
+    /** The channel that the regions are mapped from. */
+    private FileChannel channel;
+
+    /** The length of the file in bytes, fixed at construction. */
+    private final long length;
+
+    /** Mapped regions of the file, where each element is null until it is first read. */
+    private MappedByteBuffer[] regions;
+
+    /** The position of the next byte to copy out of the mapping. */
+    private long position;
+
+    // Constructors
+
+    public MappedFlacInput(File file) throws IOException {
+        this(file, 1 << 16);
+    }
+
+    /** Constructs an input for the given file, copying from the mapping in chunks of the given size in bytes. */
+    public MappedFlacInput(File file, int bufferSize) throws IOException {
+        super(bufferSize);
+        Objects.requireNonNull(file);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        length = channel.size();
+        regions = new MappedByteBuffer[(int) ((length + REGION_SIZE - 1) >>> REGION_BITS)];
+        position = 0;
+    }
+
+    // Methods
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    /** Throws IllegalArgumentException if the position is negative or beyond the end of the file. */
+    @Override
+    public void seekTo(long pos) {
+        if (pos < 0 || pos > length)
+            throw new IllegalArgumentException("Position out of range: " + pos);
+        if (seekWithinBuffer(pos))
+            return;
+        position = pos;
+        positionChanged(pos);
+    }
+
+    @Override
+    protected int readUnderlying(byte[] buf, int off, int len) throws IOException {
+        if (position >= length)
+            return -1;
+        int index = (int) (position >>> REGION_BITS);
+        MappedByteBuffer region = regions[index];
+        if (region == null) {
+            long start = (long) index << REGION_BITS;
+            region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, REGION_SIZE));
+            regions[index] = region;
+        }
+        int regionOffset = (int) (position & (REGION_SIZE - 1));
+        int n = Math.min(region.capacity() - regionOffset, len);
+        region.get(regionOffset, buf, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Closes the underlying file channel. The mapped memory itself is
+     * released when the regions are garbage-collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            regions = null;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.common.StreamInfo;
+
+
+/**
+ * Decodes the frames of a FLAC stream on several threads, and returns them in order. The input is read ahead
+ * on the caller's thread (in bulk if its length is known), where the frame boundaries are located by sync codes
+ * whose frame headers pass the CRC-8 check and continue the frame or sample numbering of the previous frame.
+ * The bytes of each frame are then decoded by an executor task with a pooled FrameDecoder, straight into arrays
+ * that are handed back to the caller, and the CRC-16 at the end of the frame confirms the boundary. In the rare
+ * case that a sync code inside a frame's data passes the header checks, the decoding fails and that frame is
+ * decoded again merged with the following bytes. Sample usage:
+ * <pre>FlacLowLevelInput input = new SeekableFileFlacInput(file);
+ * FlacDecoder dec = new FlacDecoder(input);
+ * while (dec.readAndHandleMetadataBlock() != null);
+ * ParallelFrameDecoder pdec = new ParallelFrameDecoder(input, dec.streamInfo, executor);
+ * while (pdec.readFrame(samples, 0) != null) { ... }</pre>
+ * <p>Objects of this class are stateful and not thread-safe. The input stream must not be used by anything else
+ * while this object reads from it, and the caller is responsible for closing the input stream.</p>
+ *
+ * @see FrameDecoder
+ */
+public final class ParallelFrameDecoder {
+
+    // Fields
+
+    private final FlacLowLevelInput in;
+    /** The length of the input in bytes, or -1 if it is unknown, in which case it is read one byte at a time. */
+    private final long inputLength;
+    private final int sampleDepth;
+    private final Executor executor;
+    private final int maxPending;
+
+    /** Idle frame decoders with their parsing buffers, shared by the executor's threads. */
+    private final Queue<Worker> workerPool = new ConcurrentLinkedQueue<>();
+
+    /** The chunks of input submitted for decoding, in stream order. */
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+
+    /** The frames of the head chunk that have not been returned yet. */
+    private final Deque<DecodedFrame> ready = new ArrayDeque<>();
+
+    // Read-ahead state of the frame boundary scanner. buffer[0 : bufferLen] starts at a frame header,
+    // which was parsed into bufferFrame (null if not yet parsed). scanIndex is the next index to check for a sync code.
+    private byte[] buffer;
+    private int bufferLen;
+    private FrameInfo bufferFrame;
+    private int scanIndex;
+    private boolean inputEnded;
+    private final byte[] readBuffer = new byte[READ_SIZE];
+
+    // Constructors
+
+    /**
+     * Constructs a parallel frame decoder that reads the given input stream, which must be positioned at the start
+     * of the first frame (such as after reading all the metadata blocks), and decodes on the given executor.
+     * Up to twice as many frames as there are processors are read ahead of the caller.
+     */
+    public ParallelFrameDecoder(FlacLowLevelInput in, StreamInfo info, Executor executor) {
+        this.in = Objects.requireNonNull(in);
+        this.executor = Objects.requireNonNull(executor);
+        long length;
+        try {
+            length = in.getLength();
+        } catch (UnsupportedOperationException e) {
+            length = -1;
+        }
+        inputLength = length;
+        sampleDepth = info.sampleDepth;
+        maxPending = Runtime.getRuntime().availableProcessors() * 2;
+        buffer = new byte[1 << 16];
+        bufferLen = 0;
+        bufferFrame = null;
+        scanIndex = 2;
+        inputEnded = false;
+    }
+
+    // Methods
+
+    /**
+     * Stores the samples of the next frame into outSamples[0 : numChannels][outOffset : outOffset + blockSize],
+     * and returns its metadata, or returns null at the end of the stream. Otherwise behaves like
+     * FrameDecoder.readFrame(), including the exceptions for invalid data.
+     */
+    public FrameInfo readFrame(int[][] outSamples, int outOffset) throws IOException {
+        Objects.requireNonNull(outSamples);
+        while (ready.isEmpty()) {
+            while (pending.size() < maxPending) {
+                byte[] data = nextChunk();
+                if (data == null)
+                    break;
+                pending.add(submit(data));
+            }
+            if (pending.isEmpty())
+                return null;
+            ready.addAll(takeHeadChunk());
+        }
+
+        DecodedFrame frame = ready.remove();
+        FrameInfo meta = frame.info;
+        if (outSamples.length < meta.numChannels)
+            throw new IllegalArgumentException("Output array too small for number of channels");
+        if (outOffset < 0 || outOffset > outSamples[0].length - meta.blockSize)
+            throw new IndexOutOfBoundsException();
+        for (int ch = 0; ch < meta.numChannels; ch++)
+            System.arraycopy(frame.samples[ch], 0, outSamples[ch], outOffset, meta.blockSize);
+        return meta;
+    }
+
+    /**
+     * Removes the head chunk and returns its frames. If decoding it failed because its end isn't really
+     * a frame boundary, then it is merged with the following chunks one at a time and decoded here.
+     */
+    private List<DecodedFrame> takeHeadChunk() throws IOException {
+        Chunk head = pending.remove();
+        byte[] data = head.data;
+        try {
+            return join(head.result);
+        } catch (DataFormatException | EOFException e) {
+            for (int i = 0; i < MAX_MERGES; i++) {
+                byte[] next = pending.isEmpty() ? nextChunk() : pending.remove().data;
+                if (next == null)
+                    break;
+                byte[] merged = Arrays.copyOf(data, data.length + next.length);
+                System.arraycopy(next, 0, merged, data.length, next.length);
+                data = merged;
+                try {
+                    return decodeChunk(data);
+                } catch (DataFormatException | EOFException ignored) {}
+            }
+            throw e;  // Report the first failure, as the serial decoder would
+        }
+    }
+
+    private Chunk submit(byte[] data) {
+        return new Chunk(data, CompletableFuture.supplyAsync(() -> {
+            try {
+                return decodeChunk(data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor));
+    }
+
+    private static List<DecodedFrame> join(CompletableFuture<List<DecodedFrame>> result) throws IOException {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /** Decodes all the frames in the given bytes, which must end exactly at the end of a frame. */
+    private List<DecodedFrame> decodeChunk(byte[] data) throws IOException {
+        Worker worker = workerPool.poll();
+        if (worker == null)
+            worker = new Worker(sampleDepth);
+        List<DecodedFrame> result = new ArrayList<>(1);
+        try (FlacLowLevelInput input = new ByteArrayFlacInput(data)) {
+            worker.decoder.in = input;
+            while (true) {
+                FrameInfo meta = worker.decoder.parseFrame(worker.frame);
+                if (meta == null)
+                    break;
+                int[][] samples = new int[meta.numChannels][meta.blockSize];  // Handed over to readFrame()
+                FrameDecoder.reconstructFrame(worker.frame, sampleDepth, samples, 0);
+                result.add(new DecodedFrame(meta, samples));
+            }
+        }
+        worker.decoder.in = null;
+        workerPool.add(worker);  // Only reached if no exception, which would leave the decoder unusable
+        return result;
+    }
+
+    /**
+     * Reads input up to the next frame boundary and returns the bytes since the previous one,
+     * or returns null if the input has ended. The boundary is the next sync code whose frame header
+     * is valid and numbered right after the header at the start of the buffer, or the end of input.
+     */
+    private byte[] nextChunk() throws IOException {
+        if (bufferFrame == null) {
+            if (!fillBuffer(MAX_HEADER_SIZE) && bufferLen == 0)
+                return null;
+            bufferFrame = parseHeader(0);
+            if (bufferFrame == null)  // Let the frame decoder report the error
+                return takeBuffer(bufferLen, null);
+        }
+
+        while (true) {
+            if (!fillBuffer(scanIndex + 2))
+                return takeBuffer(bufferLen, null);
+            if ((buffer[scanIndex] & 0xFF) == 0xFF && (buffer[scanIndex + 1] & 0xFE) == 0xF8) {
+                fillBuffer(scanIndex + MAX_HEADER_SIZE);
+                FrameInfo next = parseHeader(scanIndex);
+                if (next != null && isSuccessor(bufferFrame, next))
+                    return takeBuffer(scanIndex, next);
+            }
+            scanIndex++;
+        }
+    }
+
+    /** Returns whether the given frame header continues the numbering of the given previous frame header. */
+    private static boolean isSuccessor(FrameInfo prev, FrameInfo next) {
+        if (prev.frameIndex != -1)
+            return next.frameIndex == prev.frameIndex + 1;
+        else
+            return next.sampleOffset == prev.sampleOffset + prev.blockSize;
+    }
+
+    /** Returns the frame header at the given buffer index, or null if it is invalid or truncated. */
+    private FrameInfo parseHeader(int index) {
+        byte[] header = Arrays.copyOfRange(buffer, index, Math.min(index + MAX_HEADER_SIZE, bufferLen));
+        try (FlacLowLevelInput input = new ByteArrayFlacInput(header)) {
+            return FrameInfo.readFrame(input);
+        } catch (DataFormatException | IOException e) {
+            return null;
+        }
+    }
+
+    /** Removes and returns buffer[0 : len], where the remaining bytes start with the given parsed frame header. */
+    private byte[] takeBuffer(int len, FrameInfo nextFrame) {
+        byte[] result = Arrays.copyOf(buffer, len);
+        System.arraycopy(buffer, len, buffer, 0, bufferLen - len);
+        bufferLen -= len;
+        bufferFrame = nextFrame;
+        scanIndex = 2;
+        return result;
+    }
+
+    /** Reads input until the buffer has at least the given length, returning false if the input ends first. */
+    private boolean fillBuffer(int len) throws IOException {
+        while (bufferLen < len) {
+            if (inputEnded)
+                return false;
+            if (buffer.length - bufferLen < READ_SIZE)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            if (inputLength != -1) {
+                int n = (int) Math.min(inputLength - in.getPosition(), READ_SIZE);
+                if (n <= 0) {
+                    inputEnded = true;
+                    continue;
+                }
+                byte[] b = n == READ_SIZE ? readBuffer : new byte[n];  // Shorter only at the end of input
+                in.readFully(b);
+                System.arraycopy(b, 0, buffer, bufferLen, n);
+                bufferLen += n;
+            } else {
+                int b = in.readByte();
+                if (b == -1)
+                    inputEnded = true;
+                else {
+                    buffer[bufferLen] = (byte) b;
+                    bufferLen++;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Helper structures
+
+    /** The bytes of one or more whole frames, and the pending result of decoding them. */
+    private static final class Chunk {
+        public final byte[] data;
+        public final CompletableFuture<List<DecodedFrame>> result;
+
+        public Chunk(byte[] data, CompletableFuture<List<DecodedFrame>> result) {
+            this.data = data;
+            this.result = result;
+        }
+    }
+
+    private static final class DecodedFrame {
+        public final FrameInfo info;
+        /** Exactly numChannels arrays of blockSize samples. */
+        public final int[][] samples;
+
+        public DecodedFrame(FrameInfo info, int[][] samples) {
+            this.info = info;
+            this.samples = samples;
+        }
+    }
+
+    private static final class Worker {
+        public final FrameDecoder decoder;
+        public final ParsedFrame frame = new ParsedFrame();
+
+        public Worker(int sampleDepth) {
+            decoder = new FrameDecoder(null, sampleDepth);
+        }
+    }
+
+    // Constants
+
+    /** The longest possible frame header, from the sync code to the CRC-8. */
+    private static final int MAX_HEADER_SIZE = 16;
+
+    /** The most bytes read from the input at once. */
+    private static final int READ_SIZE = 1 << 14;
+
+    /** How many following chunks a frame that fails to decode is merged with, before giving up. */
+    private static final int MAX_MERGES = 4;
+}
@@ -0,0 +1,65 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import io.nayuki.flac.common.FrameInfo;
+
+
+/**
+ * The state of one FLAC frame between the two stages of decoding: its header, and for each subframe its type,
+ * parameters, and warm-up samples and residuals. Filled by FrameDecoder.parseFrame() and consumed in place by
+ * FrameDecoder.reconstructFrame(), after which the object can be reused for another frame. Not thread-safe.
+ */
+final class ParsedFrame {
+
+    // Fields
+
+    /** The header of the frame, or null if nothing has been parsed into this object. */
+    public FrameInfo info;
+
+    /** Whether the samples are in intData (for streams of up to 24 bits per sample) rather than data. */
+    public boolean useInts;
+
+    /**
+     * The raw or warm-up samples followed by the residuals of each channel, in [0 : info.blockSize].
+     * Each array is allocated or grown on demand, so it may be longer than the block or be null.
+     */
+    public final long[][] data = new long[8][];
+
+    /** The same as data, when useInts is true. */
+    public final int[][] intData = new int[8][];
+
+    /** The subframe type code of each channel. */
+    public final int[] types = new int[8];
+
+    /** The sample depth of each channel after removing the wasted bits, including the extra bit of a side channel. */
+    public final int[] depths = new int[8];
+
+    /** The number of wasted (zero) low-order bits of each channel. */
+    public final int[] wastedBits = new int[8];
+
+    /** The prediction coefficients of each channel of fixed or LPC type. Must not be modified. */
+    public final int[][] coefs = new int[8][];
+
+    /** The LPC right shift of each channel of fixed (zero) or LPC type. */
+    public final int[] lpcShifts = new int[8];
+}
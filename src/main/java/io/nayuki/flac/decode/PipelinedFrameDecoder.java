@@ -0,0 +1,180 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.common.StreamInfo;
+
+
+/**
+ * Decodes the frames of a FLAC stream in two pipelined stages. An executor task reads the input and parses
+ * each frame's headers, warm-up samples and Rice-coded residuals into one of a few reusable buffers, while the
+ * caller's thread undoes the prediction, performs stereo decoding and writes the output samples of the previous
+ * frame. Unlike ParallelFrameDecoder this never reads ahead more than a few frames and needs only one extra thread,
+ * and it works on any stream because frames are still parsed sequentially. Sample usage:
+ * <pre>FlacLowLevelInput input = new SeekableFileFlacInput(file);
+ * FlacDecoder dec = new FlacDecoder(input);
+ * while (dec.readAndHandleMetadataBlock() != null);
+ * try (PipelinedFrameDecoder pdec = new PipelinedFrameDecoder(input, dec.streamInfo, executor)) {
+ *     while (pdec.readFrame(samples, 0) != null) { ... }
+ * }</pre>
+ * <p>Objects of this class are stateful and not thread-safe. The input stream must not be used by anything else
+ * until this object is closed, and the caller is responsible for closing the input stream afterward.</p>
+ *
+ * @see FrameDecoder
+ * @see ParallelFrameDecoder
+ */
+public final class PipelinedFrameDecoder implements AutoCloseable {
+
+    // Fields
+
+    private final int sampleDepth;
+
+    /** Buffers ready to be parsed into, and an extra slot for the wake-up buffer of close(). */
+    private final BlockingQueue<ParsedFrame> free = new ArrayBlockingQueue<>(NUM_BUFFERS + 1);
+
+    /** Parsed frames in stream order, ending with a buffer whose info is null at the end of the stream or on an error. Never full. */
+    private final BlockingQueue<ParsedFrame> full = new ArrayBlockingQueue<>(NUM_BUFFERS + 1);
+
+    /** The completion of the parsing task. */
+    private final CompletableFuture<Void> parser;
+
+    /** The exception that stopped the parsing task, or null. Written before the end buffer is queued. */
+    private volatile Throwable parseError;
+
+    private volatile boolean closed;
+
+    // Constructors
+
+    /**
+     * Constructs a pipelined frame decoder that reads the given input stream, which must be positioned at the start
+     * of the first frame (such as after reading all the metadata blocks), and starts parsing on the given executor.
+     * The parsing task runs until the end of the stream or until close(), so the executor must start it on another
+     * thread soon, rather than queue it behind tasks that wait for this decoder. An executor that runs the task on
+     * the calling thread (such as Runnable::run) is rejected with IllegalArgumentException.
+     */
+    public PipelinedFrameDecoder(FlacLowLevelInput in, StreamInfo info, Executor executor) {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(executor);
+        sampleDepth = info.sampleDepth;
+        for (int i = 0; i < NUM_BUFFERS; i++)
+            free.add(new ParsedFrame());
+        FrameDecoder dec = new FrameDecoder(in, sampleDepth);
+        Thread caller = Thread.currentThread();
+        parser = CompletableFuture.runAsync(() -> {
+            if (Thread.currentThread() == caller)
+                throw new IllegalArgumentException("Executor runs tasks on the calling thread");
+            parseFrames(dec);
+        }, executor);
+        if (parser.isCompletedExceptionally())
+            throw new IllegalArgumentException("Executor runs tasks on the calling thread");
+    }
+
+    // Methods
+
+    /**
+     * Stores the samples of the next frame into outSamples[0 : numChannels][outOffset : outOffset + blockSize],
+     * and returns its metadata, or returns null at the end of the stream. Otherwise behaves like
+     * FrameDecoder.readFrame(), including the exceptions for invalid data.
+     */
+    public FrameInfo readFrame(int[][] outSamples, int outOffset) throws IOException {
+        Objects.requireNonNull(outSamples);
+        if (closed)
+            throw new IllegalStateException("Decoder closed");
+        ParsedFrame frame;
+        try {
+            frame = full.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (frame.info == null) {
+            full.add(frame);  // So that later calls end the same way
+            Throwable e = parseError;
+            if (e == null)
+                return null;
+            else if (e instanceof IOException)
+                throw (IOException) e;
+            else if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            else
+                throw (Error) e;
+        }
+        try {
+            FrameDecoder.reconstructFrame(frame, sampleDepth, outSamples, outOffset);
+            return frame.info;
+        } finally {
+            free.add(frame);
+        }
+    }
+
+    /**
+     * Stops the parsing task after the frame it is currently reading, and waits for it, so that
+     * the input stream can be used or closed afterward. Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        free.add(new ParsedFrame());  // Wakes up the parser if it waits for a buffer
+        parser.join();
+    }
+
+    /** The body of the parsing task. */
+    private void parseFrames(FrameDecoder dec) {
+        try {
+            while (true) {
+                ParsedFrame frame = free.take();
+                if (closed)
+                    return;
+                frame.info = null;
+                try {
+                    dec.parseFrame(frame);  // Leaves info null at the end of the stream
+                } catch (IOException | RuntimeException | Error e) {
+                    frame.info = null;
+                    parseError = e;
+                }
+                full.add(frame);
+                if (frame.info == null)
+                    return;
+            }
+        } catch (InterruptedException e) {
+            parseError = new InterruptedIOException();
+            full.add(new ParsedFrame());
+        }
+    }
+
+    // Constants
+
+    /** The number of frames in the pipeline: one being parsed, one being reconstructed, and one in between. */
+    private static final int NUM_BUFFERS = 3;
+}
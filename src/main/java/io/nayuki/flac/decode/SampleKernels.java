@@ -0,0 +1,149 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+
+/**
+ * The data-parallel passes at the end of decoding a frame: stereo decorrelation, restoring the wasted bits,
+ * and narrowing the samples to int with a bit depth check. Each pass has a version for the long samples of
+ * 32-bit streams, and one for the int samples of streams of up to 24 bits (whose side channel fits in 25 bits).
+ * This class has plain loops, and a subclass that uses the incubating Vector API is used instead when
+ * the JVM was started with <code>--add-modules jdk.incubator.vector</code>.
+ * Objects of this class are stateless and thread-safe. A helper class for FrameDecoder.
+ */
+class SampleKernels {
+
+    // Static functions
+
+    /** Returns the fastest available implementation. */
+    public static SampleKernels getInstance() {
+        return INSTANCE;
+    }
+
+    private static SampleKernels load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name so that this class links even without the module
+                return (SampleKernels) Class.forName("io.nayuki.flac.decode.VectorSampleKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+                // Fall back to the plain loops
+            }
+        }
+        return new SampleKernels();
+    }
+
+    /**
+     * Checks that 'val' is a signed 'depth'-bit integer, and either returns the
+     * value downcasted to an int or throws an exception if it's out of range.
+     * Note that depth must be in the range [1, 32] because the return value is an int.
+     * For example when depth = 16, the range of valid values is [-32768, 32767].
+     */
+    static int checkBitDepth(long val, int depth) {
+        assert 1 <= depth && depth <= 32;
+        // Equivalent check: (val >> (depth - 1)) == 0 || (val >> (depth - 1)) == -1
+        if (val >> (depth - 1) == val >> depth)
+            return (int) val;
+        else
+            throw new IllegalArgumentException(val + " is not a signed " + depth + "-bit value");
+    }
+
+    // Methods
+
+    /** Converts left-side stereo in place: side[0 : n] becomes the right channel. */
+    public void leftSide(long[] left, long[] side, int n) {
+        for (int i = 0; i < n; i++)
+            side[i] = left[i] - side[i];
+    }
+
+    /** Converts side-right stereo in place: side[0 : n] becomes the left channel. */
+    public void sideRight(long[] side, long[] right, int n) {
+        for (int i = 0; i < n; i++)
+            side[i] += right[i];
+    }
+
+    /** Converts mid-side stereo in place: mid[0 : n] becomes the left channel and side[0 : n] the right channel. */
+    public void midSide(long[] mid, long[] side, int n) {
+        for (int i = 0; i < n; i++) {
+            long s = side[i];
+            long right = mid[i] - (s >> 1);
+            side[i] = right;
+            mid[i] = right + s;
+        }
+    }
+
+    /** Shifts each value of data[0 : n] left by the given amount, which is in the range [1, 63]. */
+    public void shiftLeft(long[] data, int n, int shift) {
+        for (int i = 0; i < n; i++)
+            data[i] <<= shift;
+    }
+
+    /**
+     * Stores src[0 : n] into dst[dstOff : dstOff + n], and throws IllegalArgumentException
+     * if a value is not a signed depth-bit integer, where depth is in the range [1, 32].
+     */
+    public void narrow(long[] src, int[] dst, int dstOff, int n, int depth) {
+        for (int i = 0; i < n; i++)
+            dst[dstOff + i] = checkBitDepth(src[i], depth);
+    }
+
+    /** Converts left-side stereo in place, like the method for long samples. */
+    public void leftSide(int[] left, int[] side, int n) {
+        for (int i = 0; i < n; i++)
+            side[i] = left[i] - side[i];
+    }
+
+    /** Converts side-right stereo in place, like the method for long samples. */
+    public void sideRight(int[] side, int[] right, int n) {
+        for (int i = 0; i < n; i++)
+            side[i] += right[i];
+    }
+
+    /** Converts mid-side stereo in place, like the method for long samples. */
+    public void midSide(int[] mid, int[] side, int n) {
+        for (int i = 0; i < n; i++) {
+            int s = side[i];
+            int right = mid[i] - (s >> 1);
+            side[i] = right;
+            mid[i] = right + s;
+        }
+    }
+
+    /** Shifts each value of data[0 : n] left by the given amount, which is in the range [1, 31]. */
+    public void shiftLeft(int[] data, int n, int shift) {
+        for (int i = 0; i < n; i++)
+            data[i] <<= shift;
+    }
+
+    /**
+     * Copies src[0 : n] into dst[dstOff : dstOff + n], and throws IllegalArgumentException
+     * if a value is not a signed depth-bit integer, where depth is in the range [1, 32].
+     */
+    public void narrow(int[] src, int[] dst, int dstOff, int n, int depth) {
+        for (int i = 0; i < n; i++)
+            dst[dstOff + i] = checkBitDepth(src[i], depth);
+    }
+
+    // Constants
+
+    private static final SampleKernels INSTANCE = load();
+}
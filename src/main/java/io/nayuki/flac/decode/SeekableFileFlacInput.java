@@ -39,8 +39,14 @@ public final class SeekableFileFlacInput extends AbstractFlacLowLevelInput {
 
     // Constructors
 
+    /** Constructs an input for the given file with a read buffer of 64 KiB. */
     public SeekableFileFlacInput(File file) throws IOException {
-        super();
+        this(file, 1 << 16);
+    }
+
+    /** Constructs an input for the given file with a read buffer of the given size in bytes. */
+    public SeekableFileFlacInput(File file, int bufferSize) throws IOException {
+        super(bufferSize);
         Objects.requireNonNull(file);
         this.raf = new RandomAccessFile(file, "r");
     }
@@ -58,6 +64,8 @@ public final class SeekableFileFlacInput extends AbstractFlacLowLevelInput {
 
     @Override
     public void seekTo(long pos) throws IOException {
+        if (seekWithinBuffer(pos))
+            return;
         raf.seek(pos);
         positionChanged(pos);
     }
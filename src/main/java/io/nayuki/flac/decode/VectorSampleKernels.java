@@ -0,0 +1,195 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * The passes of SampleKernels with SIMD lanes of the platform's preferred vector size, and the plain loops for
+ * the remaining tail of each array. This class must only be loaded when the module jdk.incubator.vector is present.
+ * The bit depth check of narrow() is accumulated over the whole array; if it fails, the plain loop is run again
+ * to throw the same exception as it would have.
+ */
+final class VectorSampleKernels extends SampleKernels {
+
+    // Constructors
+
+    public VectorSampleKernels() {
+        if (LONGS.length() < 2)
+            throw new UnsupportedOperationException("No SIMD support");
+    }
+
+    // Methods
+
+    @Override
+    public void leftSide(long[] left, long[] side, int n) {
+        int i = 0;
+        for (int end = LONGS.loopBound(n); i < end; i += LONGS.length()) {
+            LongVector l = LongVector.fromArray(LONGS, left, i);
+            l.sub(LongVector.fromArray(LONGS, side, i)).intoArray(side, i);
+        }
+        for (; i < n; i++)
+            side[i] = left[i] - side[i];
+    }
+
+    @Override
+    public void sideRight(long[] side, long[] right, int n) {
+        int i = 0;
+        for (int end = LONGS.loopBound(n); i < end; i += LONGS.length()) {
+            LongVector s = LongVector.fromArray(LONGS, side, i);
+            s.add(LongVector.fromArray(LONGS, right, i)).intoArray(side, i);
+        }
+        for (; i < n; i++)
+            side[i] += right[i];
+    }
+
+    @Override
+    public void midSide(long[] mid, long[] side, int n) {
+        int i = 0;
+        for (int end = LONGS.loopBound(n); i < end; i += LONGS.length()) {
+            LongVector s = LongVector.fromArray(LONGS, side, i);
+            LongVector right = LongVector.fromArray(LONGS, mid, i).sub(s.lanewise(VectorOperators.ASHR, 1));
+            right.intoArray(side, i);
+            right.add(s).intoArray(mid, i);
+        }
+        for (; i < n; i++) {
+            long s = side[i];
+            long right = mid[i] - (s >> 1);
+            side[i] = right;
+            mid[i] = right + s;
+        }
+    }
+
+    @Override
+    public void shiftLeft(long[] data, int n, int shift) {
+        int i = 0;
+        for (int end = LONGS.loopBound(n); i < end; i += LONGS.length())
+            LongVector.fromArray(LONGS, data, i).lanewise(VectorOperators.LSHL, shift).intoArray(data, i);
+        for (; i < n; i++)
+            data[i] <<= shift;
+    }
+
+    @Override
+    public void narrow(long[] src, int[] dst, int dstOff, int n, int depth) {
+        long lowerBound = (long) (-1) << (depth - 1);
+        LongVector bad = LongVector.zero(LONGS);
+        int i = 0;
+        for (int end = LONGS.loopBound(n); i < end; i += LONGS.length()) {
+            LongVector v = LongVector.fromArray(LONGS, src, i);
+            // Nonzero exactly when the value is outside [lowerBound, -lowerBound)
+            bad = bad.or(v.sub(lowerBound).lanewise(VectorOperators.LSHR, depth));
+            ((IntVector) v.convertShape(VectorOperators.L2I, INTS, 0)).intoArray(dst, dstOff + i);
+        }
+        if (bad.reduceLanes(VectorOperators.OR) != 0) {
+            super.narrow(src, dst, dstOff, n, depth);  // Throws
+            throw new AssertionError();
+        }
+        for (; i < n; i++)
+            dst[dstOff + i] = checkBitDepth(src[i], depth);
+    }
+
+    @Override
+    public void leftSide(int[] left, int[] side, int n) {
+        int i = 0;
+        for (int end = INTS_PREFERRED.loopBound(n); i < end; i += INTS_PREFERRED.length()) {
+            IntVector l = IntVector.fromArray(INTS_PREFERRED, left, i);
+            l.sub(IntVector.fromArray(INTS_PREFERRED, side, i)).intoArray(side, i);
+        }
+        for (; i < n; i++)
+            side[i] = left[i] - side[i];
+    }
+
+    @Override
+    public void sideRight(int[] side, int[] right, int n) {
+        int i = 0;
+        for (int end = INTS_PREFERRED.loopBound(n); i < end; i += INTS_PREFERRED.length()) {
+            IntVector s = IntVector.fromArray(INTS_PREFERRED, side, i);
+            s.add(IntVector.fromArray(INTS_PREFERRED, right, i)).intoArray(side, i);
+        }
+        for (; i < n; i++)
+            side[i] += right[i];
+    }
+
+    @Override
+    public void midSide(int[] mid, int[] side, int n) {
+        int i = 0;
+        for (int end = INTS_PREFERRED.loopBound(n); i < end; i += INTS_PREFERRED.length()) {
+            IntVector s = IntVector.fromArray(INTS_PREFERRED, side, i);
+            IntVector right = IntVector.fromArray(INTS_PREFERRED, mid, i).sub(s.lanewise(VectorOperators.ASHR, 1));
+            right.intoArray(side, i);
+            right.add(s).intoArray(mid, i);
+        }
+        for (; i < n; i++) {
+            int s = side[i];
+            int right = mid[i] - (s >> 1);
+            side[i] = right;
+            mid[i] = right + s;
+        }
+    }
+
+    @Override
+    public void shiftLeft(int[] data, int n, int shift) {
+        int i = 0;
+        for (int end = INTS_PREFERRED.loopBound(n); i < end; i += INTS_PREFERRED.length())
+            IntVector.fromArray(INTS_PREFERRED, data, i).lanewise(VectorOperators.LSHL, shift).intoArray(data, i);
+        for (; i < n; i++)
+            data[i] <<= shift;
+    }
+
+    @Override
+    public void narrow(int[] src, int[] dst, int dstOff, int n, int depth) {
+        if (depth == 32) {
+            System.arraycopy(src, 0, dst, dstOff, n);
+            return;
+        }
+        int lowerBound = -1 << (depth - 1);
+        IntVector bad = IntVector.zero(INTS_PREFERRED);
+        int i = 0;
+        for (int end = INTS_PREFERRED.loopBound(n); i < end; i += INTS_PREFERRED.length()) {
+            IntVector v = IntVector.fromArray(INTS_PREFERRED, src, i);
+            // Nonzero exactly when the value is outside [lowerBound, -lowerBound)
+            bad = bad.or(v.sub(lowerBound).lanewise(VectorOperators.LSHR, depth));
+            v.intoArray(dst, dstOff + i);
+        }
+        if (bad.reduceLanes(VectorOperators.OR) != 0) {
+            super.narrow(src, dst, dstOff, n, depth);  // Throws
+            throw new AssertionError();
+        }
+        for (; i < n; i++)
+            dst[dstOff + i] = checkBitDepth(src[i], depth);
+    }
+
+    // Constants
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Integer> INTS_PREFERRED = IntVector.SPECIES_PREFERRED;
+
+    /** Int lanes of the same count as LONGS, in half the vector size. */
+    private static final VectorSpecies<Integer> INTS = LONGS.length() < 2 ? null :
+            VectorSpecies.of(int.class, VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+}
@@ -25,32 +25,46 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import io.nayuki.flac.common.StreamInfo;
 
 
 public final class AdvancedFlacEncoder {
 
+    private static final Logger logger = Logger.getLogger(AdvancedFlacEncoder.class.getName());
+
     public AdvancedFlacEncoder(StreamInfo info, int[][] samples, int baseSize, int[] sizeMultiples, SubframeEncoder.SearchOptions opts, BitOutputStream out) throws IOException {
+        this(info, samples, baseSize, sizeMultiples, opts, out, ForkJoinPool.commonPool(),
+                progress -> {
+                    if (logger.isLoggable(Level.FINER))
+                        logger.finer(String.format("progress=%.2f%%", progress * 100));
+                });
+    }
+
+    /**
+     * Encodes with variable block sizes, computing the grid of candidate frames (every size multiple at every base
+     * position) as independent tasks on the given fork-join pool. The progress callback receives the fraction of
+     * the grid completed so far, in the range (0, 1]; it is called from the pool's threads but never concurrently,
+     * with increasing fractions that end with 1. Fractions reached while the callback runs are skipped, so a slow
+     * callback doesn't hold up the other threads. The output does not depend on the pool or its parallelism.
+     */
+    public AdvancedFlacEncoder(StreamInfo info, int[][] samples, int baseSize, int[] sizeMultiples, SubframeEncoder.SearchOptions opts, BitOutputStream out, ForkJoinPool pool, DoubleConsumer progress) throws IOException {
+        Objects.requireNonNull(pool);
+        Objects.requireNonNull(progress);
         int numSamples = samples[0].length;
 
         // Calculate compressed sizes for many block positions and sizes
         @SuppressWarnings("unchecked")
         SizeEstimate<FrameEncoder>[][] encoderInfo = new SizeEstimate[sizeMultiples.length][(numSamples + baseSize - 1) / baseSize];
-        long startTime = System.currentTimeMillis();
-        for (int i = 0; i < encoderInfo[0].length; i++) {
-            double progress = (double) i / encoderInfo[0].length;
-            double timeRemain = (System.currentTimeMillis() - startTime) / 1000.0 / progress * (1 - progress);
-            System.err.printf("\rprogress=%.2f%%    timeRemain=%ds", progress * 100, Math.round(timeRemain));
-
-            int pos = i * baseSize;
-            for (int j = 0; j < encoderInfo.length; j++) {
-                int n = Math.min(sizeMultiples[j] * baseSize, numSamples - pos);
-                long[][] subsamples = getRange(samples, pos, n);
-                encoderInfo[j][i] = FrameEncoder.computeBest(pos, subsamples, info.sampleDepth, info.sampleRate, opts);
-            }
-        }
-        System.err.println();
+        pool.invoke(new GridTask(encoderInfo, 0, encoderInfo.length * encoderInfo[0].length, info, samples, baseSize, sizeMultiples, opts, new ProgressCounter(encoderInfo.length * encoderInfo[0].length, progress)));
 
         // Initialize arrays to prepare for dynamic programming
         FrameEncoder[] bestEncoders = new FrameEncoder[encoderInfo[0].length];
@@ -85,30 +99,92 @@ public final class AdvancedFlacEncoder {
                 info.minBlockSize = Math.max(n, 16);
             info.maxBlockSize = Math.max(n, info.maxBlockSize);
 
-            long[][] subsamples = getRange(samples, pos, n);
-            long startByte = out.getByteCount();
-            bestEncoders[i].encode(subsamples, out);
+            FlacEncoder.writeFrame(info, enc, FlacEncoder.getRange(samples, pos, n), out);
             i += (n + baseSize - 1) / baseSize;
+        }
+    }
+
+    /**
+     * Computes the cells encoderInfo[j][i] for the flattened indexes k = i * sizeMultiples.length + j
+     * in the range [start, end), splitting the range in half until a single cell remains.
+     */
+    @SuppressWarnings("serial")
+    private static final class GridTask extends RecursiveAction {
 
-            long frameSize = out.getByteCount() - startByte;
-            if (frameSize < 0 || (int) frameSize != frameSize)
-                throw new AssertionError();
-            if (info.minFrameSize == 0 || frameSize < info.minFrameSize)
-                info.minFrameSize = (int) frameSize;
-            if (frameSize > info.maxFrameSize)
-                info.maxFrameSize = (int) frameSize;
+        private final SizeEstimate<FrameEncoder>[][] encoderInfo;
+        private final int start;
+        private final int end;
+        private final StreamInfo info;
+        private final int[][] samples;
+        private final int baseSize;
+        private final int[] sizeMultiples;
+        private final SubframeEncoder.SearchOptions opts;
+        private final ProgressCounter counter;
+
+        public GridTask(SizeEstimate<FrameEncoder>[][] encoderInfo, int start, int end, StreamInfo info, int[][] samples,
+                int baseSize, int[] sizeMultiples, SubframeEncoder.SearchOptions opts, ProgressCounter counter) {
+            this.encoderInfo = encoderInfo;
+            this.start = start;
+            this.end = end;
+            this.info = info;
+            this.samples = samples;
+            this.baseSize = baseSize;
+            this.sizeMultiples = sizeMultiples;
+            this.opts = opts;
+            this.counter = counter;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new GridTask(encoderInfo, start, mid, info, samples, baseSize, sizeMultiples, opts, counter),
+                        new GridTask(encoderInfo, mid, end, info, samples, baseSize, sizeMultiples, opts, counter));
+                return;
+            }
+            int i = start / sizeMultiples.length;
+            int j = start % sizeMultiples.length;
+            int pos = i * baseSize;
+            int n = Math.min(sizeMultiples[j] * baseSize, samples[0].length - pos);
+            long[][] subsamples = FlacEncoder.getRange(samples, pos, n);
+            encoderInfo[j][i] = FrameEncoder.computeBest(pos, subsamples, info.sampleDepth, info.sampleRate, opts);
+            encoderInfo[j][i].encoder.releaseResiduals();  // The grid would otherwise hold several copies of the whole input
+            counter.increment();
         }
     }
 
-    /** Returns the subrange array[ : ][off : off + len] upcasted to long. */
-    private static long[][] getRange(int[][] array, int off, int len) {
-        long[][] result = new long[array.length][len];
-        for (int i = 0; i < array.length; i++) {
-            int[] src = array[i];
-            long[] dest = result[i];
-            for (int j = 0; j < len; j++)
-                dest[j] = src[off + j];
+    /**
+     * Counts completed grid cells and reports the latest count to the callback. The thread that finds no report
+     * in progress makes it, and the other threads go on without waiting for the callback.
+     */
+    private static final class ProgressCounter {
+
+        private final int total;
+        private final DoubleConsumer callback;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicBoolean reporting = new AtomicBoolean();
+        private volatile int reported;
+
+        public ProgressCounter(int total, DoubleConsumer callback) {
+            this.total = total;
+            this.callback = callback;
+        }
+
+        public void increment() {
+            done.incrementAndGet();
+            do {
+                if (!reporting.compareAndSet(false, true))
+                    return;  // The reporting thread will see our count when it rechecks
+                try {
+                    int n = done.get();
+                    if (n != reported) {
+                        reported = n;
+                        callback.accept((double) n / total);
+                    }
+                } finally {
+                    reporting.set(false);
+                }
+            } while (done.get() != reported);
         }
-        return result;
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * A window function that the samples of a subframe are multiplied by before computing their autocorrelation for
+ * LPC analysis. Tapering the ends of the block reduces the spectral leakage of the autocorrelation method.
+ * Objects of this class are immutable and thread-safe; each one caches its table of values per block size.
+ *
+ * @see SubframeEncoder.SearchOptions#withLpcWindows(List)
+ */
+public final class ApodizationWindow {
+
+    // Static factories
+
+    /** Returns the rectangular window, i.e. no tapering at all. */
+    public static ApodizationWindow rectangle() {
+        return new ApodizationWindow(Kind.RECTANGLE, 0, 1, 0);
+    }
+
+    /** Returns the Hann window, a raised cosine over the whole block. */
+    public static ApodizationWindow hann() {
+        return new ApodizationWindow(Kind.HANN, 0, 1, 0);
+    }
+
+    /** Returns the Welch window, a parabola over the whole block. */
+    public static ApodizationWindow welch() {
+        return new ApodizationWindow(Kind.WELCH, 0, 1, 0);
+    }
+
+    /**
+     * Returns the Tukey window with the given fraction (0 <= p <= 1) of the block tapered by cosines, half at
+     * each end. A fraction of 0 is the rectangular window and a fraction of 1 is the Hann window.
+     */
+    public static ApodizationWindow tukey(double p) {
+        checkFraction(p);
+        return new ApodizationWindow(Kind.TUKEY, p, 1, 0);
+    }
+
+    /**
+     * Returns the windows that each cover one of the given number of equal parts of the block with a Tukey window
+     * of the given fraction, and are zero elsewhere. They let LPC analysis adapt to changes within a block.
+     */
+    public static List<ApodizationWindow> partialTukey(int parts, double p) {
+        checkFraction(p);
+        if (parts < 1)
+            throw new IllegalArgumentException();
+        List<ApodizationWindow> result = new ArrayList<>();
+        for (int i = 0; i < parts; i++)
+            result.add(new ApodizationWindow(Kind.PARTIAL_TUKEY, p, parts, i));
+        return result;
+    }
+
+    /**
+     * Returns the windows that are each zero on one of the given number of equal parts of the block,
+     * with a Tukey window of the given fraction on each of the remaining one or two ranges.
+     */
+    public static List<ApodizationWindow> punchoutTukey(int parts, double p) {
+        checkFraction(p);
+        if (parts < 2)
+            throw new IllegalArgumentException();
+        List<ApodizationWindow> result = new ArrayList<>();
+        for (int i = 0; i < parts; i++)
+            result.add(new ApodizationWindow(Kind.PUNCHOUT_TUKEY, p, parts, i));
+        return result;
+    }
+
+    private static void checkFraction(double p) {
+        if (!(0 <= p && p <= 1))
+            throw new IllegalArgumentException();
+    }
+
+    // Fields
+
+    private final Kind kind;
+    private final double fraction;
+    private final int parts;
+    private final int index;
+
+    /** Computed tables by block size. Each array is never modified after being put here. */
+    private final Map<Integer, double[]> tables = new ConcurrentHashMap<>();
+
+    // Constructors
+
+    private ApodizationWindow(Kind kind, double fraction, int parts, int index) {
+        this.kind = kind;
+        this.fraction = fraction;
+        this.parts = parts;
+        this.index = index;
+    }
+
+    // Methods
+
+    /** Returns the window values for the given block size. The caller must not modify the array. */
+    double[] getTable(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException();
+        double[] result = tables.get(blockSize);
+        if (result == null) {
+            if (tables.size() >= MAX_CACHED_SIZES)  // Odd final block sizes could otherwise pile up
+                tables.clear();
+            result = tables.computeIfAbsent(blockSize, this::computeTable);
+        }
+        return result;
+    }
+
+    private double[] computeTable(int n) {
+        double[] result = new double[n];
+        int start = (int) ((long) n * index / parts);
+        int end = (int) ((long) n * (index + 1) / parts);
+        switch (kind) {
+            case RECTANGLE -> fillTukey(result, 0, n, 0);
+            case HANN -> fillTukey(result, 0, n, 1);
+            case WELCH -> {
+                double half = (n - 1) / 2.0;
+                for (int i = 0; i < n; i++) {
+                    double x = half > 0 ? (i - half) / half : 0;
+                    result[i] = 1 - x * x;
+                }
+            }
+            case TUKEY -> fillTukey(result, 0, n, fraction);
+            case PARTIAL_TUKEY -> fillTukey(result, start, end, fraction);
+            case PUNCHOUT_TUKEY -> {
+                fillTukey(result, 0, start, fraction);
+                fillTukey(result, end, n, fraction);
+            }
+        }
+        return result;
+    }
+
+    /** Sets arr[start : end] to a Tukey window of the given fraction over that range. */
+    private static void fillTukey(double[] arr, int start, int end, double p) {
+        int n = end - start;
+        int taper = (int) (p / 2 * n);  // Length of each cosine end
+        for (int i = 0; i < n; i++) {
+            double val = 1;
+            if (i < taper)
+                val = 0.5 - 0.5 * Math.cos(Math.PI * (i + 0.5) / taper);
+            else if (i >= n - taper)
+                val = 0.5 - 0.5 * Math.cos(Math.PI * (n - i - 0.5) / taper);
+            arr[start + i] = val;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String name = kind.name().toLowerCase();
+        return switch (kind) {
+            case RECTANGLE, HANN, WELCH -> name;
+            case TUKEY -> name + "(" + fraction + ")";
+            case PARTIAL_TUKEY, PUNCHOUT_TUKEY -> name + "(" + index + "/" + parts + ", " + fraction + ")";
+        };
+    }
+
+    // Constants
+
+    private static final int MAX_CACHED_SIZES = 64;
+
+    private enum Kind {
+        RECTANGLE, HANN, WELCH, TUKEY, PARTIAL_TUKEY, PUNCHOUT_TUKEY,
+    }
+}
@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Objects;
 
+import io.nayuki.flac.common.Crc;
+
 
 /*
  * A bit-oriented output stream, with other methods tailored for FLAC usage (such as CRC calculation).
@@ -39,20 +41,40 @@ public final class BitOutputStream implements AutoCloseable {
     private long bitBuffer;
     /** Always in the range [0, 64]. */
     private int bitBufferLen;
-    /** Number of bytes written since the start of stream. */
+    /** Number of bytes written to the underlying stream since the start of stream. */
     private long byteCount;
 
+    // Whole bytes are moved from the bit buffer into this byte buffer,
+    // which is written to the underlying stream in bulk when it fills up.
+    private byte[] byteBuffer;
+    /** Always in the range [0, byteBuffer.length]. */
+    private int byteBufferLen;
+
     // Current state of the CRC calculations.
     /** Always a uint8 value. */
     private int crc8;
     /** Always a uint16 value. */
     private int crc16;
+    /** In the range [0, byteBufferLen]; the bytes before this index are already included in the CRCs. */
+    private int crcStartIndex;
 
     // Constructors
 
-    /** Constructs a FLAC-oriented bit output stream from the given byte-based output stream. */
+    /** Constructs a FLAC-oriented bit output stream from the given byte-based output stream, with an 8 KiB buffer. */
     public BitOutputStream(OutputStream out) throws IOException {
+        this(out, 8192);
+    }
+
+    /**
+     * Constructs a FLAC-oriented bit output stream from the given byte-based output stream,
+     * buffering up to the given number of bytes (at least 8) before writing them to the underlying stream.
+     */
+    public BitOutputStream(OutputStream out, int bufferSize) throws IOException {
         this.out = Objects.requireNonNull(out);
+        if (bufferSize < 8)
+            throw new IllegalArgumentException("Buffer size too small");
+        byteBuffer = new byte[bufferSize];
+        byteBufferLen = 0;
         bitBuffer = 0;
         bitBufferLen = 0;
         byteCount = 0;
@@ -85,7 +107,7 @@ public final class BitOutputStream implements AutoCloseable {
             throw new IllegalArgumentException();
 
         if (bitBufferLen + n > 64) {
-            flush();
+            drainBitBuffer();
             assert bitBufferLen + n <= 64;
         }
         bitBuffer <<= n;
@@ -95,27 +117,88 @@ public final class BitOutputStream implements AutoCloseable {
     }
 
     /**
-     * Writes out whole bytes from the bit buffer to the underlying stream. After this is done,
-     * only 0 to 7 bits remain in the bit buffer. Also updates the CRCs on each byte written.
+     * Writes the given value as a Rice code with the given parameter (0 <= param <= 31), using the FLAC mapping
+     * of signed to unsigned numbers. The value must fit in a signed int53. The unary prefix is written
+     * in runs of up to 32 zero bits, so a large quotient still takes only a few operations.
      */
-    public void flush() throws IOException {
-        while (bitBufferLen >= 8) {
-            bitBufferLen -= 8;
-            int b = (int) (bitBuffer >>> bitBufferLen) & 0xFF;
-            out.write(b);
-            byteCount++;
-            crc8 ^= b;
-            crc16 ^= b << 8;
-            for (int i = 0; i < 8; i++) {
-                crc8 <<= 1;
-                crc16 <<= 1;
-                crc8 ^= (crc8 >>> 8) * 0x107;
-                crc16 ^= (crc16 >>> 16) * 0x18005;
-                assert (crc8 >>> 8) == 0;
-                assert (crc16 >>> 16) == 0;
+    public void writeRiceSignedInt(int param, long val) throws IOException {
+        if (param < 0 || param > 31)
+            throw new IllegalArgumentException();
+        writeRice(param, val);
+    }
+
+    /**
+     * Writes each of the values data[start : end] as a Rice code with the given parameter,
+     * equivalent to calling writeRiceSignedInt() on each value in order.
+     */
+    public void writeRiceSignedInts(int param, long[] data, int start, int end) throws IOException {
+        if (param < 0 || param > 31)
+            throw new IllegalArgumentException();
+        if (start < 0 || start > end || end > data.length)
+            throw new IndexOutOfBoundsException();
+        for (int i = start; i < end; i++)
+            writeRice(param, data[i]);
+    }
+
+    private void writeRice(int param, long val) throws IOException {
+        assert (val >> 52) == 0 || (val >> 52) == -1;  // Fits in a signed int53
+        long unsigned = (val << 1) ^ (val >> 63);
+        long unary = unsigned >>> param;
+        long tail = (1L << param) | (unsigned & ((1L << param) - 1));  // Stop bit and remainder
+        int tailLen = param + 1;
+
+        if (unary + tailLen <= 56) {  // Common case: everything fits in one step
+            int n = (int) unary + tailLen;
+            if (bitBufferLen + n > 64)
+                drainBitBuffer();
+            bitBuffer = (bitBuffer << n) | tail;
+            bitBufferLen += n;
+        } else {
+            while (unary > 0) {
+                int n = (int) Math.min(unary, 32);
+                if (bitBufferLen + n > 64)
+                    drainBitBuffer();
+                bitBuffer <<= n;
+                bitBufferLen += n;
+                unary -= n;
             }
+            if (bitBufferLen + tailLen > 64)
+                drainBitBuffer();
+            bitBuffer = (bitBuffer << tailLen) | tail;
+            bitBufferLen += tailLen;
         }
         assert 0 <= bitBufferLen && bitBufferLen <= 64;
+    }
+
+    /** Moves whole bytes from the bit buffer to the byte buffer, leaving 0 to 7 bits in the bit buffer. */
+    private void drainBitBuffer() throws IOException {
+        if (byteBufferLen > byteBuffer.length - 8)
+            writeByteBuffer();
+        while (bitBufferLen >= 8) {
+            bitBufferLen -= 8;
+            byteBuffer[byteBufferLen] = (byte) (bitBuffer >>> bitBufferLen);
+            byteBufferLen++;
+        }
+        assert 0 <= bitBufferLen && bitBufferLen < 8;
+    }
+
+    /** Updates the CRCs, writes all the bytes in the byte buffer to the underlying stream, and empties the byte buffer. */
+    private void writeByteBuffer() throws IOException {
+        updateCrcs();
+        out.write(byteBuffer, 0, byteBufferLen);
+        byteCount += byteBufferLen;
+        byteBufferLen = 0;
+        crcStartIndex = 0;
+    }
+
+    /**
+     * Writes out whole bytes from the bit buffer and all buffered bytes to the underlying stream, then flushes
+     * the underlying stream. After this is done, only 0 to 7 bits remain in the bit buffer. Because of the
+     * internal buffering, there is no need to call this method except when the underlying stream must see the data.
+     */
+    public void flush() throws IOException {
+        drainBitBuffer();
+        writeByteBuffer();
         out.flush();
     }
 
@@ -123,7 +206,8 @@ public final class BitOutputStream implements AutoCloseable {
 
     /** Marks the current position (which must be byte-aligned) as the start of both CRC calculations. */
     public void resetCrcs() throws IOException {
-        flush();
+        drainBitBuffer();
+        crcStartIndex = byteBufferLen;
         crc8 = 0;
         crc16 = 0;
     }
@@ -134,7 +218,8 @@ public final class BitOutputStream implements AutoCloseable {
      */
     public int getCrc8() throws IOException {
         checkByteAligned();
-        flush();
+        drainBitBuffer();
+        updateCrcs();
         if ((crc8 >>> 8) != 0)
             throw new AssertionError();
         return crc8;
@@ -146,17 +231,25 @@ public final class BitOutputStream implements AutoCloseable {
      */
     public int getCrc16() throws IOException {
         checkByteAligned();
-        flush();
+        drainBitBuffer();
+        updateCrcs();
         if ((crc16 >>> 16) != 0)
             throw new AssertionError();
         return crc16;
     }
 
+    /** Updates the two CRC values with data in byteBuffer[crcStartIndex : byteBufferLen]. */
+    private void updateCrcs() {
+        crc8 = Crc.updateCrc8(crc8, byteBuffer, crcStartIndex, byteBufferLen - crcStartIndex);
+        crc16 = Crc.updateCrc16(crc16, byteBuffer, crcStartIndex, byteBufferLen - crcStartIndex);
+        crcStartIndex = byteBufferLen;
+    }
+
     // Miscellaneous
 
     /** Returns the number of bytes written since the start of the stream. */
     public long getByteCount() {
-        return byteCount + bitBufferLen / 8;
+        return byteCount + byteBufferLen + bitBufferLen / 8;
     }
 
     /**
@@ -173,6 +266,7 @@ public final class BitOutputStream implements AutoCloseable {
             flush();
             out.close();
             out = null;
+            byteBuffer = null;
         }
     }
 }
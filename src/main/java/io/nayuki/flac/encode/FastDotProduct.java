@@ -69,6 +69,11 @@ final class FastDotProduct {
 
     // Methods
 
+    /** Returns the length of the data array. */
+    public int length() {
+        return data.length;
+    }
+
     /**
      * Returns the dot product of data[off0 : off0 + len] with data[off1 : off1 + len],
      * i.e. data[off0]*data[off1] + data[off0+1]*data[off1+1] + ... + data[off0+len-1]*data[off1+len-1],
@@ -22,6 +22,7 @@
 package io.nayuki.flac.encode;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Objects;
 
 
@@ -32,22 +33,68 @@ import java.util.Objects;
 final class FixedPredictionEncoder extends SubframeEncoder {
 
     /**
-     * Computes the best way to encode the given values under the fixed prediction coding mode of the given order,
-     * returning a size plus a new encoder object associated with the input arguments. The maxRiceOrder argument
-     * is used by the Rice encoder to estimate the size of coding the residual signal.
+     * Computes the best way to encode the given values under the fixed prediction coding mode of each order
+     * in the range [minOrder, maxOrder], returning the smallest size (the lowest order on ties) plus a new encoder
+     * object associated with the input arguments. The residuals of all the orders are computed in a single pass by
+     * taking successive differences, which is exactly what the fixed predictors of increasing order compute.
+     * The maxRiceOrder argument is used by the Rice encoder to estimate the size of coding the residual signal,
+     * and the estimateRice argument selects its fast closed-form estimate instead of the exact calculation.
      */
-    public static SizeEstimate<SubframeEncoder> computeBest(long[] samples, int shift, int depth, int order, int maxRiceOrder) {
-        FixedPredictionEncoder enc = new FixedPredictionEncoder(samples, shift, depth, order);
-        samples = LinearPredictiveEncoder.shiftRight(samples, shift);
-        LinearPredictiveEncoder.applyLpc(samples, COEFFICIENTS[order], 0);
-        long temp = RiceEncoder.computeBestSizeAndOrder(samples, order, maxRiceOrder);
-        enc.riceOrder = (int) (temp & 0xF);
-        long size = 1 + 6 + 1 + shift + (long) order * depth + (temp >>> 4);
-        return new SizeEstimate<>(size, enc);
+    public static SizeEstimate<SubframeEncoder> computeBest(long[] samples, int shift, int depth, int minOrder, int maxOrder,
+            int maxRiceOrder, boolean estimateRice) {
+        if (minOrder < 0 || minOrder > maxOrder || maxOrder >= COEFFICIENTS.length)
+            throw new IllegalArgumentException();
+        long[][] residuals = computeResiduals(samples, shift, maxOrder);
+        SizeEstimate<SubframeEncoder> result = null;
+        for (int order = minOrder; order <= maxOrder; order++) {
+            FixedPredictionEncoder enc = new FixedPredictionEncoder(samples, shift, depth, order);
+            SizeEstimate<SubframeEncoder> temp = new SizeEstimate<>(enc.computeSize(residuals[order], maxRiceOrder, estimateRice), enc);
+            result = result == null ? temp : result.minimum(temp);
+        }
+        return result;
+    }
+
+    /**
+     * Returns arrays where result[order] equals the samples shifted right and then predicted by applyLpc()
+     * with COEFFICIENTS[order], for each order in [0, maxOrder]. The samples must fit in signed int33.
+     */
+    private static long[][] computeResiduals(long[] samples, int shift, int maxOrder) {
+        int n = samples.length;
+        long[][] result = new long[maxOrder + 1][n];
+        long[] res0 = result[0];
+        long[] res1 = maxOrder >= 1 ? result[1] : res0;  // Aliases of lower orders are overwritten harmlessly
+        long[] res2 = maxOrder >= 2 ? result[2] : res1;
+        long[] res3 = maxOrder >= 3 ? result[3] : res2;
+        long[] res4 = maxOrder >= 4 ? result[4] : res3;
+        long prev0 = 0, prev1 = 0, prev2 = 0, prev3 = 0;
+        for (int i = 0; i < n; i++) {
+            // Each difference of order k is valid for i >= k, which is all that is kept
+            long d0 = samples[i] >> shift;
+            long d1 = d0 - prev0;
+            long d2 = d1 - prev1;
+            long d3 = d2 - prev2;
+            long d4 = d3 - prev3;
+            prev0 = d0;
+            prev1 = d1;
+            prev2 = d2;
+            prev3 = d3;
+            res4[i] = d4;
+            res3[i] = d3;
+            res2[i] = d2;
+            res1[i] = d1;
+            res0[i] = d0;
+        }
+        for (int order = 1; order <= maxOrder; order++)  // Warmup samples are not predicted
+            System.arraycopy(res0, 0, result[order], 0, Math.min(order, n));
+        return result;
     }
 
     private final int order;
     public int riceOrder;
+    /** The Rice parameter of each partition, or null to choose them when encoding. */
+    private int[] riceParams;
+    /** The shifted samples after prediction, kept from the size calculation for encode(), or null. */
+    private long[] residuals;
 
     public FixedPredictionEncoder(long[] samples, int shift, int depth, int order) {
         super(shift, depth);
@@ -56,6 +103,32 @@ final class FixedPredictionEncoder extends SubframeEncoder {
         this.order = order;
     }
 
+    /** Keeps the given residuals of this encoder's order, sets the Rice fields, and returns the subframe size in bits. */
+    private long computeSize(long[] residuals, int maxRiceOrder, boolean estimateRice) {
+        int[] params = new int[1 << maxRiceOrder];
+        long temp = estimateRice ? RiceEncoder.estimateBestSizeAndOrder(residuals, order, maxRiceOrder, params)
+                : RiceEncoder.computeBestSizeAndOrder(residuals, order, maxRiceOrder, params);
+        riceOrder = (int) (temp & 0xF);
+        riceParams = Arrays.copyOf(params, 1 << riceOrder);
+        this.residuals = residuals;
+        return 1 + 6 + 1 + sampleShift + (long) order * sampleDepth + (temp >>> 4);
+    }
+
+    @Override
+    long refineSize(long[] samples, long estimate, int maxRiceOrder) {
+        long[] data = residuals;
+        if (data == null) {
+            data = LinearPredictiveEncoder.shiftRight(samples, sampleShift);
+            LinearPredictiveEncoder.applyLpc(data, COEFFICIENTS[order], 0);
+        }
+        return computeSize(data, maxRiceOrder, false);
+    }
+
+    @Override
+    void releaseResiduals() {
+        residuals = null;
+    }
+
     @Override
     public void encode(long[] samples, BitOutputStream out) throws IOException {
         Objects.requireNonNull(samples);
@@ -64,12 +137,16 @@ final class FixedPredictionEncoder extends SubframeEncoder {
             throw new IllegalArgumentException();
 
         writeTypeAndShift(8 + order, out);
-        samples = LinearPredictiveEncoder.shiftRight(samples, sampleShift);
+        long[] data = residuals;
+        if (data == null) {
+            data = LinearPredictiveEncoder.shiftRight(samples, sampleShift);
+            LinearPredictiveEncoder.applyLpc(data, COEFFICIENTS[order], 0);
+        } else if (data.length != samples.length)
+            throw new IllegalArgumentException();
 
-        for (int i = 0; i < order; i++)  // Warmup
-            writeRawSample(samples[i], out);
-        LinearPredictiveEncoder.applyLpc(samples, COEFFICIENTS[order], 0);
-        RiceEncoder.encode(samples, order, riceOrder, out);
+        for (int i = 0; i < order; i++)  // Warmup, which prediction leaves unchanged
+            writeRawSample(data[i], out);
+        RiceEncoder.encode(data, order, riceOrder, riceParams, out);
     }
 
     /** The linear predictive coding (LPC) coefficients for fixed prediction of orders 0 to 4 (inclusive). */
@@ -22,6 +22,12 @@
 package io.nayuki.flac.encode;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 import io.nayuki.flac.common.StreamInfo;
@@ -32,31 +38,83 @@ public final class FlacEncoder {
     private static final Logger logger = Logger.getLogger(FlacEncoder.class.getName());
 
     public FlacEncoder(StreamInfo info, int[][] samples, int blockSize, SubframeEncoder.SearchOptions opt, BitOutputStream out) throws IOException {
-        info.minBlockSize = blockSize;
-        info.maxBlockSize = blockSize;
-        info.minFrameSize = 0;
-        info.maxFrameSize = 0;
+        initFrameInfo(info, blockSize);
 
         for (int i = 0, pos = 0; pos < samples[0].length; i++) {
 logger.finer(String.format("frame=%d  position=%d  %.2f%%%n", i, pos, 100.0 * pos / samples[0].length));
             int n = Math.min(samples[0].length - pos, blockSize);
             long[][] subsamples = getRange(samples, pos, n);
             FrameEncoder enc = FrameEncoder.computeBest(pos, subsamples, info.sampleDepth, info.sampleRate, opt).encoder;
-            long startByte = out.getByteCount();
-            enc.encode(subsamples, out);
-            long frameSize = out.getByteCount() - startByte;
-            if (frameSize < 0 || (int) frameSize != frameSize)
-                throw new AssertionError();
-            if (info.minFrameSize == 0 || frameSize < info.minFrameSize)
-                info.minFrameSize = (int) frameSize;
-            if (frameSize > info.maxFrameSize)
-                info.maxFrameSize = (int) frameSize;
+            writeFrame(info, enc, subsamples, out);
             pos += n;
         }
     }
 
+    /**
+     * Encodes the same way as the sequential constructor, but runs the search for the best encoding of each frame
+     * as a task on the given executor (such as a ForkJoinPool or a virtual thread executor). Up to twice as many
+     * frames as there are processors are searched ahead of the frame being written. Frames are still written
+     * in order by the calling thread, so the output is byte-for-byte identical to the sequential encoder's.
+     */
+    public FlacEncoder(StreamInfo info, int[][] samples, int blockSize, SubframeEncoder.SearchOptions opt, BitOutputStream out, Executor executor) throws IOException {
+        Objects.requireNonNull(executor);
+        initFrameInfo(info, blockSize);
+        int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+
+        Deque<long[][]> pendingSamples = new ArrayDeque<>();
+        Deque<CompletableFuture<FrameEncoder>> pendingEncoders = new ArrayDeque<>();
+        for (int i = 0, pos = 0; pos < samples[0].length || !pendingEncoders.isEmpty(); ) {
+            if (pos < samples[0].length && pendingEncoders.size() < maxPending) {
+                int n = Math.min(samples[0].length - pos, blockSize);
+                long[][] subsamples = getRange(samples, pos, n);
+                int offset = pos;
+                pendingSamples.add(subsamples);
+                pendingEncoders.add(CompletableFuture.supplyAsync(() ->
+                        FrameEncoder.computeBest(offset, subsamples, info.sampleDepth, info.sampleRate, opt).encoder, executor));
+                pos += n;
+            } else {
+                FrameEncoder enc;
+                try {
+                    enc = pendingEncoders.remove().join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw e;
+                }
+logger.finer(String.format("frame=%d  position=%d  %.2f%%%n", i, enc.metadata.sampleOffset, 100.0 * enc.metadata.sampleOffset / samples[0].length));
+                writeFrame(info, enc, pendingSamples.remove(), out);
+                i++;
+            }
+        }
+    }
+
+    private static void initFrameInfo(StreamInfo info, int blockSize) {
+        info.minBlockSize = blockSize;
+        info.maxBlockSize = blockSize;
+        info.minFrameSize = 0;
+        info.maxFrameSize = 0;
+    }
+
+    /**
+     * Encodes the given frame to the output stream, and updates the frame size range in the stream info.
+     * Every encoder in this package writes its frames through here.
+     */
+    static void writeFrame(StreamInfo info, FrameEncoder enc, long[][] subsamples, BitOutputStream out) throws IOException {
+        long startByte = out.getByteCount();
+        enc.encode(subsamples, out);
+        long frameSize = out.getByteCount() - startByte;
+        if (frameSize < 0 || (int) frameSize != frameSize)
+            throw new AssertionError();
+        if (info.minFrameSize == 0 || frameSize < info.minFrameSize)
+            info.minFrameSize = (int) frameSize;
+        if (frameSize > info.maxFrameSize)
+            info.maxFrameSize = (int) frameSize;
+    }
+
     /** Returns the subrange array[ : ][off : off + len] upcasted to long. */
-    private static long[][] getRange(int[][] array, int off, int len) {
+    static long[][] getRange(int[][] array, int off, int len) {
         long[][] result = new long[array.length][len];
         for (int i = 0; i < array.length; i++) {
             int[] src = array[i];
@@ -36,7 +36,7 @@ final class FrameEncoder {
 
     // Static functions
 
-    public static SizeEstimate<FrameEncoder> computeBest(int sampleOffset, long[][] samples, int sampleDepth, int sampleRate, SubframeEncoder.SearchOptions opt) {
+    public static SizeEstimate<FrameEncoder> computeBest(long sampleOffset, long[][] samples, int sampleDepth, int sampleRate, SubframeEncoder.SearchOptions opt) {
         FrameEncoder enc = new FrameEncoder(sampleOffset, samples, sampleDepth, sampleRate);
         int numChannels = samples.length;
         @SuppressWarnings("unchecked")
@@ -54,14 +54,19 @@ final class FrameEncoder {
                 mid[i] = (left[i] + right[i]) >> 1;
                 side[i] = left[i] - right[i];
             }
-            SizeEstimate<SubframeEncoder> leftInfo = SubframeEncoder.computeBest(left, sampleDepth, opt);
-            SizeEstimate<SubframeEncoder> rightInfo = SubframeEncoder.computeBest(right, sampleDepth, opt);
-            SizeEstimate<SubframeEncoder> midInfo = SubframeEncoder.computeBest(mid, sampleDepth, opt);
-            SizeEstimate<SubframeEncoder> sideInfo = SubframeEncoder.computeBest(side, sampleDepth + 1, opt);
-            long mode1Size = leftInfo.sizeEstimate + rightInfo.sizeEstimate;
-            long mode8Size = leftInfo.sizeEstimate + sideInfo.sizeEstimate;
-            long mode9Size = rightInfo.sizeEstimate + sideInfo.sizeEstimate;
-            long mode10Size = midInfo.sizeEstimate + sideInfo.sizeEstimate;
+            boolean[] search = {true, true, true, true};  // Left, right, mid, side
+            if (opt.stereoSearch == SubframeEncoder.SearchOptions.StereoSearch.PRUNED)
+                search = StereoAnalysis.pruneChannels(left, right);
+            else if (opt.stereoSearch == SubframeEncoder.SearchOptions.StereoSearch.ESTIMATED)
+                search = StereoAnalysis.chooseChannels(left, right);
+            SizeEstimate<SubframeEncoder> leftInfo = search[0] ? SubframeEncoder.computeBest(left, sampleDepth, opt) : null;
+            SizeEstimate<SubframeEncoder> rightInfo = search[1] ? SubframeEncoder.computeBest(right, sampleDepth, opt) : null;
+            SizeEstimate<SubframeEncoder> midInfo = search[2] ? SubframeEncoder.computeBest(mid, sampleDepth, opt) : null;
+            SizeEstimate<SubframeEncoder> sideInfo = search[3] ? SubframeEncoder.computeBest(side, sampleDepth + 1, opt) : null;
+            long mode1Size = addSizes(leftInfo, rightInfo);
+            long mode8Size = addSizes(leftInfo, sideInfo);
+            long mode9Size = addSizes(rightInfo, sideInfo);
+            long mode10Size = addSizes(midInfo, sideInfo);
             long minimum = Math.min(Math.min(mode1Size, mode8Size), Math.min(mode9Size, mode10Size));
             if (mode1Size == minimum) {
                 enc.metadata.channelAssignment = 1;
@@ -94,7 +99,7 @@ final class FrameEncoder {
         // Count length of header (always in whole bytes)
         try {
             ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            try (BitOutputStream bitout = new BitOutputStream(bout)) {
+            try (BitOutputStream bitout = new BitOutputStream(bout, 64)) {  // A frame header is at most 16 bytes
                 enc.metadata.writeHeader(bitout);
             }
             bout.close();
@@ -109,6 +114,13 @@ final class FrameEncoder {
         return new SizeEstimate<>(size, enc);
     }
 
+    /** Returns the sum of the two sizes, or Long.MAX_VALUE if either channel was not searched (is null). */
+    private static long addSizes(SizeEstimate<SubframeEncoder> x, SizeEstimate<SubframeEncoder> y) {
+        if (x == null || y == null)
+            return Long.MAX_VALUE;
+        return x.sizeEstimate + y.sizeEstimate;
+    }
+
     // Fields
 
     public FrameInfo metadata;
@@ -116,7 +128,7 @@ final class FrameEncoder {
 
     // Constructors
 
-    public FrameEncoder(int sampleOffset, long[][] samples, int sampleDepth, int sampleRate) {
+    public FrameEncoder(long sampleOffset, long[][] samples, int sampleDepth, int sampleRate) {
         metadata = new FrameInfo();
         metadata.sampleOffset = sampleOffset;
         metadata.sampleDepth = sampleDepth;
@@ -127,6 +139,12 @@ final class FrameEncoder {
 
     // Public methods
 
+    /** Drops the residuals that the subframe encoders kept, for a caller that holds on to many frame encoders. */
+    public void releaseResiduals() {
+        for (SubframeEncoder enc : subEncoders)
+            enc.releaseResiduals();
+    }
+
     public void encode(long[][] samples, BitOutputStream out) throws IOException {
         // Check arguments
         Objects.requireNonNull(samples);
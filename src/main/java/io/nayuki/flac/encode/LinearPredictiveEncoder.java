@@ -38,15 +38,41 @@ final class LinearPredictiveEncoder extends SubframeEncoder {
      * has an enormous search space, and it is impossible to guarantee the absolute optimal solution. The maxRiceOrder argument
      * is used by the Rice encoder to estimate the size of coding the residual signal. The roundVars argument controls
      * how many different coefficients are tested rounding both up and down, resulting in exponential time behavior.
+     * The estimateRice argument selects the Rice encoder's fast closed-form size estimate instead of the exact calculation.
+     * Returns null if a coefficient is too large to quantize (at least 2<sup>14</sup> in magnitude).
      */
-    public static SizeEstimate<SubframeEncoder> computeBest(long[] samples, int shift, int depth, int order, int roundVars, FastDotProduct fdp, int maxRiceOrder) {
+    public static SizeEstimate<SubframeEncoder> computeBest(long[] samples, int shift, int depth, int order, int roundVars, FastDotProduct fdp,
+            int maxRiceOrder, boolean estimateRice) {
         // Check arguments
         if (order < 1 || order > 32)
             throw new IllegalArgumentException();
         if (roundVars < 0 || roundVars > order || roundVars > 30)
             throw new IllegalArgumentException();
+        return computeBest(samples, shift, depth, new LinearPredictiveEncoder(samples, shift, depth, order, fdp), roundVars, maxRiceOrder, estimateRice);
+    }
+
+    /**
+     * Computes a good way to encode the given values under linear predictive coding with the given real-valued
+     * coefficients, which are quantized and then rounded as in the other computeBest(). The order is realCoefs.length,
+     * and realCoefs[order - 1 - i] is the coefficient of the sample at distance i + 1 before the one being predicted.
+     * Returns null if a coefficient is too large to quantize, which can happen for a stable predictor of a high order.
+     */
+    public static SizeEstimate<SubframeEncoder> computeBest(long[] samples, int shift, int depth, double[] realCoefs, int roundVars,
+            int maxRiceOrder, boolean estimateRice) {
+        // Check arguments
+        int order = realCoefs.length;
+        if (order < 1 || order > 32 || samples.length < order)
+            throw new IllegalArgumentException();
+        if (roundVars < 0 || roundVars > order || roundVars > 30)
+            throw new IllegalArgumentException();
+        return computeBest(samples, shift, depth, new LinearPredictiveEncoder(shift, depth, realCoefs.clone()), roundVars, maxRiceOrder, estimateRice);
+    }
 
-        LinearPredictiveEncoder enc = new LinearPredictiveEncoder(samples, shift, depth, order, fdp);
+    private static SizeEstimate<SubframeEncoder> computeBest(long[] samples, int shift, int depth, LinearPredictiveEncoder enc, int roundVars,
+            int maxRiceOrder, boolean estimateRice) {
+        if (enc.coefShift < 0)  // The FLAC format has no negative shifts
+            return null;
+        int order = enc.order;
         samples = shiftRight(samples, shift);
 
         double[] residues;
@@ -65,6 +91,7 @@ final class LinearPredictiveEncoder extends SubframeEncoder {
 
         long bestSize = Long.MAX_VALUE;
         int[] bestCoefs = enc.coefficients.clone();
+        int[] params = new int[1 << maxRiceOrder];
         for (int i = 0; i < (1 << roundVars); i++) {
             for (int j = 0; j < roundVars; j++) {
                 int k = indices[j];
@@ -79,12 +106,15 @@ final class LinearPredictiveEncoder extends SubframeEncoder {
 
             long[] newData = roundVars > 0 ? samples.clone() : samples;
             applyLpc(newData, enc.coefficients, enc.coefShift);
-            long temp = RiceEncoder.computeBestSizeAndOrder(newData, order, maxRiceOrder);
+            long temp = estimateRice ? RiceEncoder.estimateBestSizeAndOrder(newData, order, maxRiceOrder, params)
+                    : RiceEncoder.computeBestSizeAndOrder(newData, order, maxRiceOrder, params);
             long size = 1 + 6 + 1 + shift + (long) order * depth + (temp >>> 4);
             if (size < bestSize) {
                 bestSize = size;
                 bestCoefs = enc.coefficients.clone();
                 enc.riceOrder = (int) (temp & 0xF);
+                enc.riceParams = Arrays.copyOf(params, 1 << enc.riceOrder);
+                enc.residuals = newData;
             }
         }
         enc.coefficients = bestCoefs;
@@ -97,13 +127,43 @@ final class LinearPredictiveEncoder extends SubframeEncoder {
     private final int coefDepth;
     private final int coefShift;
     public int riceOrder;
+    /** The Rice parameter of each partition, or null to choose them when encoding. */
+    private int[] riceParams;
+    /** The shifted samples after prediction, kept from the size calculation for encode(), or null. */
+    private long[] residuals;
 
     public LinearPredictiveEncoder(long[] samples, int shift, int depth, int order, FastDotProduct fdp) {
+        this(shift, depth, computeCovarianceCoefficients(samples, order, fdp));
+    }
+
+    /** Constructs an encoder that quantizes the given real coefficients, whose length is the order. */
+    private LinearPredictiveEncoder(int shift, int depth, double[] realCoefs) {
         super(shift, depth);
+        this.order = realCoefs.length;
+        this.realCoefs = realCoefs;
+
+        // Examine range of coefficients
+        double maxCoef = 0;
+        for (double x : realCoefs)
+            maxCoef = Math.max(Math.abs(x), maxCoef);
+        int wholeBits = maxCoef >= 1 ? (int) (Math.log(maxCoef) / Math.log(2)) + 1 : 0;
+
+        // Quantize and store the coefficients
+        coefficients = new int[order];
+        coefDepth = 15;  // The maximum possible
+        coefShift = coefDepth - 1 - wholeBits;
+        for (int i = 0; i < realCoefs.length; i++) {
+            double coef = realCoefs[realCoefs.length - 1 - i];
+            int val = (int) Math.round(coef * (1 << coefShift));
+            coefficients[i] = Math.max(Math.min(val, (1 << (coefDepth - 1)) - 1), -(1 << (coefDepth - 1)));
+        }
+    }
+
+    /** Returns the least squares coefficients of the given order, with the covariance method. */
+    private static double[] computeCovarianceCoefficients(long[] samples, int order, FastDotProduct fdp) {
         int numSamples = samples.length;
         if (order < 1 || order > 32 || numSamples < order)
             throw new IllegalArgumentException();
-        this.order = order;
 
         // Set up matrix to solve linear least squares problem
         double[][] matrix = new double[order][order + 1];
@@ -117,23 +177,78 @@ final class LinearPredictiveEncoder extends SubframeEncoder {
                 matrix[r][c] = val;
             }
         }
+        return solveMatrix(matrix);
+    }
 
-        // Solve matrix, then examine range of coefficients
-        realCoefs = solveMatrix(matrix);
-        double maxCoef = 0;
-        for (double x : realCoefs)
-            maxCoef = Math.max(Math.abs(x), maxCoef);
-        int wholeBits = maxCoef >= 1 ? (int) (Math.log(maxCoef) / Math.log(2)) + 1 : 0;
+    /**
+     * Returns the coefficients of every order from 1 to maxOrder with the autocorrelation method, where result[order]
+     * is in the same layout as the realCoefs argument of computeBest(), and result[0] is null. The Levinson-Durbin
+     * recursion computes each order from the previous one in O(order) time. If the recursion becomes numerically
+     * unstable (such as for a signal that is perfectly predictable), then the remaining orders are null.
+     */
+    static double[][] computeAutocorrelationCoefficients(FastDotProduct fdp, int maxOrder) {
+        if (maxOrder < 1 || maxOrder > 32)
+            throw new IllegalArgumentException();
+        int numSamples = fdp.length();
+        double[] autocorr = new double[maxOrder + 1];
+        for (int i = 0; i < autocorr.length; i++)
+            autocorr[i] = fdp.dotProduct(0, i, numSamples - i);
+        return levinsonDurbin(autocorr, maxOrder);
+    }
 
-        // Quantize and store the coefficients
-        coefficients = new int[order];
-        coefDepth = 15;  // The maximum possible
-        coefShift = coefDepth - 1 - wholeBits;
-        for (int i = 0; i < realCoefs.length; i++) {
-            double coef = realCoefs[realCoefs.length - 1 - i];
-            int val = (int) Math.round(coef * (1 << coefShift));
-            coefficients[i] = Math.max(Math.min(val, (1 << (coefDepth - 1)) - 1), -(1 << (coefDepth - 1)));
+    /**
+     * Returns the coefficients of every order from 1 to maxOrder with the autocorrelation method, in the same layout
+     * as the other computeAutocorrelationCoefficients(), after multiplying the samples by the given window of equal length.
+     */
+    static double[][] computeAutocorrelationCoefficients(long[] samples, double[] window, int maxOrder) {
+        if (maxOrder < 1 || maxOrder > 32)
+            throw new IllegalArgumentException();
+        int numSamples = samples.length;
+        if (window.length != numSamples)
+            throw new IllegalArgumentException();
+        double[] data = new double[numSamples];
+        for (int i = 0; i < numSamples; i++)
+            data[i] = samples[i] * window[i];
+        double[] autocorr = new double[maxOrder + 1];
+        for (int i = 0; i < autocorr.length; i++) {
+            double sum = 0;
+            for (int j = i; j < numSamples; j++)
+                sum += data[j] * data[j - i];
+            autocorr[i] = sum;
+        }
+        return levinsonDurbin(autocorr, maxOrder);
+    }
+
+    /**
+     * Runs the Levinson-Durbin recursion on the given autocorrelation values autocorr[0 : maxOrder + 1],
+     * returning the coefficients of each order in the layout described in computeAutocorrelationCoefficients().
+     */
+    static double[][] levinsonDurbin(double[] autocorr, int maxOrder) {
+        double[][] result = new double[maxOrder + 1][];
+        double[] pred = new double[maxOrder + 1];  // pred[j] is the coefficient at distance j; pred[0] is unused
+        double[] temp = new double[maxOrder + 1];
+        double error = autocorr[0];
+        for (int order = 1; order <= maxOrder; order++) {
+            if (!(error > autocorr[0] * 1e-12))  // Also catches NaN
+                break;
+            double sum = autocorr[order];
+            for (int j = 1; j < order; j++)
+                sum -= pred[j] * autocorr[order - j];
+            double reflect = sum / error;
+            if (!(Math.abs(reflect) < 1))
+                break;
+            System.arraycopy(pred, 0, temp, 0, order);
+            for (int j = 1; j < order; j++)
+                pred[j] = temp[j] - reflect * temp[order - j];
+            pred[order] = reflect;
+            error *= 1 - reflect * reflect;
+
+            double[] coefs = new double[order];
+            for (int i = 0; i < order; i++)
+                coefs[order - 1 - i] = pred[i + 1];
+            result[order] = coefs;
         }
+        return result;
     }
 
     /**
@@ -200,6 +315,23 @@ final class LinearPredictiveEncoder extends SubframeEncoder {
         return result;
     }
 
+    @Override
+    long refineSize(long[] samples, long estimate, int maxRiceOrder) {
+        samples = shiftRight(samples, sampleShift);
+        applyLpc(samples, coefficients, coefShift);
+        int[] params = new int[1 << maxRiceOrder];
+        long temp = RiceEncoder.computeBestSizeAndOrder(samples, order, maxRiceOrder, params);
+        riceOrder = (int) (temp & 0xF);
+        riceParams = Arrays.copyOf(params, 1 << riceOrder);
+        residuals = samples;
+        return 1 + 6 + 1 + sampleShift + (long) order * sampleDepth + (temp >>> 4);
+    }
+
+    @Override
+    void releaseResiduals() {
+        residuals = null;
+    }
+
     @Override
     public void encode(long[] samples, BitOutputStream out) throws IOException {
         Objects.requireNonNull(samples);
@@ -208,16 +340,20 @@ final class LinearPredictiveEncoder extends SubframeEncoder {
             throw new IllegalArgumentException();
 
         writeTypeAndShift(32 + order - 1, out);
-        samples = shiftRight(samples, sampleShift);
+        long[] data = residuals;
+        if (data == null) {
+            data = shiftRight(samples, sampleShift);
+            applyLpc(data, coefficients, coefShift);
+        } else if (data.length != samples.length)
+            throw new IllegalArgumentException();
 
-        for (int i = 0; i < order; i++)  // Warmup
-            writeRawSample(samples[i], out);
+        for (int i = 0; i < order; i++)  // Warmup, which prediction leaves unchanged
+            writeRawSample(data[i], out);
         out.writeInt(4, coefDepth - 1);
         out.writeInt(5, coefShift);
         for (int x : coefficients)
             out.writeInt(coefDepth, x);
-        applyLpc(samples, coefficients, coefShift);
-        RiceEncoder.encode(samples, order, riceOrder, out);
+        RiceEncoder.encode(data, order, riceOrder, riceParams, out);
     }
 
     // Static helper functions
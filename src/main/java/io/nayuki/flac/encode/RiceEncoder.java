@@ -38,25 +38,30 @@ final class RiceEncoder {
      * Each value in that subrange of data must fit in a signed 53-bit integer. The result is packed in the form
      * ((bestSize << 4) | bestOrder), where bestSize is an unsigned integer and bestOrder is an uint4.
      * Note that the partition orders searched, and hence the resulting bestOrder, are in the range [0, maxPartOrder].
+     * If bestParams is not null, then its elements [0 : 2^bestOrder] are set to the parameter chosen for
+     * each partition, in the format taken by encode(); its length must be at least 2^maxPartOrder.
      */
-    public static long computeBestSizeAndOrder(long[] data, int warmup, int maxPartOrder) {
+    public static long computeBestSizeAndOrder(long[] data, int warmup, int maxPartOrder, int[] bestParams) {
         // Check arguments strictly
         Objects.requireNonNull(data);
         if (warmup < 0 || warmup > data.length)
             throw new IllegalArgumentException();
         if (maxPartOrder < 0 || maxPartOrder > 15)
             throw new IllegalArgumentException();
+        if (bestParams != null && bestParams.length < (1 << maxPartOrder))
+            throw new IllegalArgumentException();
         for (long x : data) {
             x >>= 52;
             if (x != 0 && x != -1)  // Check that it fits in a signed int53
                 throw new IllegalArgumentException();
         }
 
-        long bestSize = Integer.MAX_VALUE;
+        long bestSize = Long.MAX_VALUE;
         int bestOrder = -1;
 
         int[] escapeBits = null;
-        int[] bitsAtParam = null;
+        long[] bitsAtParam = null;
+        int[] params = new int[1 << maxPartOrder];
         for (int order = maxPartOrder; order >= 0; order--) {
             int partSize = data.length >>> order;
             if ((partSize << order) != data.length || partSize < warmup)
@@ -65,14 +70,15 @@ final class RiceEncoder {
 
             if (escapeBits == null) {  // And bitsAtParam == null
                 escapeBits = new int[numPartitions];
-                bitsAtParam = new int[numPartitions * 16];
+                bitsAtParam = new long[numPartitions * 16];
                 for (int i = warmup; i < data.length; i++) {
                     int j = i / partSize;
                     long val = data[i];
                     escapeBits[j] = Math.max(65 - Long.numberOfLeadingZeros(val ^ (val >> 63)), escapeBits[j]);
                     val = (val >= 0) ? (val << 1) : (((-val) << 1) - 1);
+                    val = Math.min(val, 1L << 40);  // Clamped so that the tallies can't overflow; such a value is hopeless anyway
                     for (int param = 0; param < 15; param++, val >>>= 1)
-                        bitsAtParam[param + j * 16] = (int) (bitsAtParam[param + j * 16] + val + 1 + param);
+                        bitsAtParam[param + j * 16] += val + 1 + param;
                 }
             } else {  // Both arrays are non-null
                 // Logically halve the size of both arrays (but without reallocating to the true new size)
@@ -86,24 +92,131 @@ final class RiceEncoder {
 
             long size = 4 + (4L << order);
             for (int i = 0; i < numPartitions; i++) {
-                int min = Integer.MAX_VALUE;
-                if (escapeBits[i] <= 31)
-                    min = 5 + escapeBits[i] * (partSize - (i == 0 ? warmup : 0));
-                for (int param = 0; param < 15; param++)
-                    min = Math.min(bitsAtParam[param + i * 16], min);
+                long min = Long.MAX_VALUE;
+                if (escapeBits[i] <= 31) {
+                    min = 5 + (long) escapeBits[i] * (partSize - (i == 0 ? warmup : 0));
+                    params[i] = 16 + escapeBits[i];
+                }
+                for (int param = 0; param < 15; param++) {
+                    if (bitsAtParam[param + i * 16] < min) {
+                        min = bitsAtParam[param + i * 16];
+                        params[i] = param;
+                    }
+                }
                 size += min;
             }
             if (size < bestSize) {
                 bestSize = size;
                 bestOrder = order;
+                if (bestParams != null)
+                    System.arraycopy(params, 0, bestParams, 0, numPartitions);
             }
         }
 
-        if (bestSize == Integer.MAX_VALUE || (bestOrder >>> 4) != 0)
+        if (bestSize == Long.MAX_VALUE || (bestOrder >>> 4) != 0)
             throw new AssertionError();
         return bestSize << 4 | bestOrder;
     }
 
+    /**
+     * Estimates the best number of bits and partition order needed to encode the values data[warmup : data.length],
+     * with the same arguments and result format as computeBestSizeAndOrder(). Instead of tallying the size at every
+     * Rice parameter for every value, this keeps only the sum of the values in each partition and derives the size
+     * at the best parameter in closed form, which is much faster but can be off by a few percent.
+     * The parameters put in bestParams are likewise estimates.
+     */
+    public static long estimateBestSizeAndOrder(long[] data, int warmup, int maxPartOrder, int[] bestParams) {
+        // Check arguments strictly
+        Objects.requireNonNull(data);
+        if (warmup < 0 || warmup > data.length)
+            throw new IllegalArgumentException();
+        if (maxPartOrder < 0 || maxPartOrder > 15)
+            throw new IllegalArgumentException();
+        if (bestParams != null && bestParams.length < (1 << maxPartOrder))
+            throw new IllegalArgumentException();
+        for (long x : data) {
+            x >>= 52;
+            if (x != 0 && x != -1)  // Check that it fits in a signed int53
+                throw new IllegalArgumentException();
+        }
+
+        long bestSize = Long.MAX_VALUE;
+        int bestOrder = -1;
+
+        int[] escapeBits = null;
+        long[] sums = null;
+        int[] params = new int[1 << maxPartOrder];
+        for (int order = maxPartOrder; order >= 0; order--) {
+            int partSize = data.length >>> order;
+            if ((partSize << order) != data.length || partSize < warmup)
+                continue;
+            int numPartitions = 1 << order;
+
+            if (escapeBits == null) {  // And sums == null
+                escapeBits = new int[numPartitions];
+                sums = new long[numPartitions];
+                for (int i = warmup; i < data.length; i++) {
+                    int j = i / partSize;
+                    long val = data[i];
+                    escapeBits[j] = Math.max(65 - Long.numberOfLeadingZeros(val ^ (val >> 63)), escapeBits[j]);
+                    val = (val << 1) ^ (val >> 63);
+                    sums[j] += Math.min(val, 1L << 46);  // Clamped so that the sum can't overflow; such a value is hopeless anyway
+                }
+            } else {  // Both arrays are non-null
+                // Logically halve the size of both arrays (but without reallocating to the true new size)
+                for (int i = 0; i < numPartitions; i++) {
+                    int j = i << 1;
+                    escapeBits[i] = Math.max(escapeBits[j], escapeBits[j + 1]);
+                    sums[i] = sums[j] + sums[j + 1];
+                }
+            }
+
+            long size = 4 + (4L << order);
+            for (int i = 0; i < numPartitions; i++) {
+                int count = partSize - (i == 0 ? warmup : 0);
+                params[i] = estimateRiceParam(sums[i], count);
+                long min = estimateRiceBits(sums[i], count, params[i]);
+                if (escapeBits[i] <= 31 && 5 + escapeBits[i] * count <= min) {
+                    min = 5 + escapeBits[i] * count;
+                    params[i] = 16 + escapeBits[i];
+                }
+                size += min;
+            }
+            if (size < bestSize) {
+                bestSize = size;
+                bestOrder = order;
+                if (bestParams != null)
+                    System.arraycopy(params, 0, bestParams, 0, numPartitions);
+            }
+        }
+
+        if (bestSize == Long.MAX_VALUE || (bestOrder >>> 4) != 0)
+            throw new AssertionError();
+        return bestSize << 4 | bestOrder;
+    }
+
+    /**
+     * Estimates the best Rice parameter in the range [0, 14] to encode the given number of values
+     * whose zigzag-mapped unsigned forms have the given sum.
+     */
+    private static int estimateRiceParam(long sum, int count) {
+        if (count == 0)
+            return 0;
+        // Minimizing count * param + sum / 2^param gives 2^param = sum * ln(2) / count,
+        // so try the integers on either side of that
+        double ideal = sum * 0.6931471805599453 / count;
+        int param = ideal >= 1 ? Math.min(Math.getExponent(ideal), 13) : 0;
+        return estimateRiceBits(sum, count, param) <= estimateRiceBits(sum, count, param + 1) ? param : param + 1;
+    }
+
+    /** Returns the approximate size, given that each value loses half a unit to rounding down on average. */
+    private static long estimateRiceBits(long sum, int count, int param) {
+        long result = (long) count * (param + 1) + (sum >>> param);
+        if (param > 0)
+            result -= count >>> 1;
+        return result;
+    }
+
     /**
      * Calculates the number of bits needed to encode the sequence of values
      * data[start : end] with an optimally chosen Rice parameter.
@@ -155,10 +268,11 @@ final class RiceEncoder {
     // Functions for encoding data
 
     /**
-     * Encodes the sequence of values data[warmup : data.length] with an appropriately chosen order and Rice parameters.
-     * Each value in data must fit in a signed 53-bit integer.
+     * Encodes the sequence of values data[warmup : data.length] with the given partition order and the given parameter
+     * for each partition, as computed by computeBestSizeAndOrder(). If params is null, then each parameter is chosen
+     * here with a full search. Each value in data must fit in a signed 53-bit integer.
      */
-    public static void encode(long[] data, int warmup, int order, BitOutputStream out) throws IOException {
+    public static void encode(long[] data, int warmup, int order, int[] params, BitOutputStream out) throws IOException {
         // Check arguments strictly
         Objects.requireNonNull(data);
         Objects.requireNonNull(out);
@@ -166,6 +280,8 @@ final class RiceEncoder {
             throw new IllegalArgumentException();
         if (order < 0 || order > 15)
             throw new IllegalArgumentException();
+        if (params != null && params.length != (1 << order))
+            throw new IllegalArgumentException();
         for (long x : data) {
             x >>= 52;
             if (x != 0 && x != -1)  // Check that it fits in a signed int53
@@ -178,7 +294,7 @@ final class RiceEncoder {
         int start = warmup;
         int end = data.length >>> order;
         for (int i = 0; i < numPartitions; i++) {
-            int param = (int) computeBestSizeAndParam(data, start, end) & 0x3F;
+            int param = params != null ? params[i] : (int) computeBestSizeAndParam(data, start, end) & 0x3F;
             encode(data, start, end, param, out);
             start = end;
             end += data.length >>> order;
@@ -187,13 +303,12 @@ final class RiceEncoder {
 
     /** Encodes the sequence of values data[start : end] with the given Rice parameter. */
     private static void encode(long[] data, int start, int end, int param, BitOutputStream out) throws IOException {
-        assert 0 <= param && param <= 31 && data != null && out != null;
+        assert (0 <= param && param <= 14 || 16 <= param && param <= 16 + 31) && data != null && out != null;
         assert 0 <= start && start <= end && end <= data.length;
 
         if (param < 15) {
             out.writeInt(4, param);
-            for (int j = start; j < end; j++)
-                writeRiceSignedInt(data[j], param, out);
+            out.writeRiceSignedInts(param, data, start, end);
         } else {
             out.writeInt(4, 15);
             int numBits = param - 16;
@@ -202,16 +317,4 @@ final class RiceEncoder {
                 out.writeInt(numBits, (int) data[j]);
         }
     }
-
-    private static void writeRiceSignedInt(long val, int param, BitOutputStream out) throws IOException {
-        assert 0 <= param && param <= 31 && out != null;
-        assert (val >> 52) == 0 || (val >> 52) == -1;  // Fits in a signed int53
-
-        long unsigned = val >= 0 ? val << 1 : ((-val) << 1) - 1;
-        int unary = (int) (unsigned >>> param);
-        for (int i = 0; i < unary; i++)
-            out.writeInt(1, 0);
-        out.writeInt(1, 1);
-        out.writeInt(param, (int) unsigned);
-    }
 }
@@ -0,0 +1,161 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+
+/**
+ * Estimates which stereo channel assignments are worth a full search, either from the auto- and cross-correlations
+ * of the left and right channels (the correlations of the mid and side channels follow from these algebraically,
+ * so a frame is scanned once instead of analysing four channels separately), or from a cheaper energy measure.
+ * A helper class for FrameEncoder.
+ */
+final class StereoAnalysis {
+
+    // Static functions
+
+    /**
+     * Returns which of the channels {left, right, mid, side} are used by a stereo mode whose estimated size is
+     * within a small margin of the best estimate. The modes are left/right, left/side, right/side and mid/side.
+     * This is a heuristic: the estimates ignore quantization and Rice coding, so the mode that is actually smallest
+     * is sometimes pruned. The two arrays must have the same length, and values that fit in signed int33.
+     */
+    public static boolean[] pruneChannels(long[] left, long[] right) {
+        int n = left.length;
+        if (right.length != n)
+            throw new IllegalArgumentException();
+        int maxLag = Math.min(ANALYSIS_ORDER, n - 1);
+        if (maxLag < 1)
+            return new boolean[]{true, true, true, true};
+
+        // Correlations at each lag k, e.g. lr[k] = sum of left[i] * right[i - k]
+        double[] ll = new double[maxLag + 1];
+        double[] rr = new double[maxLag + 1];
+        double[] lr = new double[maxLag + 1];
+        double[] rl = new double[maxLag + 1];
+        for (int k = 0; k <= maxLag; k++) {
+            double sumLl = 0, sumRr = 0, sumLr = 0, sumRl = 0;
+            for (int i = k; i < n; i++) {
+                double l0 = left[i], r0 = right[i];
+                double l1 = left[i - k], r1 = right[i - k];
+                sumLl += l0 * l1;
+                sumRr += r0 * r1;
+                sumLr += l0 * r1;
+                sumRl += r0 * l1;
+            }
+            ll[k] = sumLl;
+            rr[k] = sumRr;
+            lr[k] = sumLr;
+            rl[k] = sumRl;
+        }
+
+        // Mid = (left + right) / 2 (ignoring the rounding) and side = left - right
+        double[] mm = new double[maxLag + 1];
+        double[] ss = new double[maxLag + 1];
+        for (int k = 0; k <= maxLag; k++) {
+            mm[k] = (ll[k] + rr[k] + lr[k] + rl[k]) / 4;
+            ss[k] = ll[k] + rr[k] - lr[k] - rl[k];
+        }
+        double[] bits = {
+            estimateBits(ll, n, maxLag),
+            estimateBits(rr, n, maxLag),
+            estimateBits(mm, n, maxLag),
+            estimateBits(ss, n, maxLag),
+        };
+
+        // Keep the modes close to the best one
+        double best = Double.POSITIVE_INFINITY;
+        for (int[] chans : MODE_CHANNELS)
+            best = Math.min(bits[chans[0]] + bits[chans[1]], best);
+        boolean[] result = new boolean[4];
+        for (int[] chans : MODE_CHANNELS) {
+            if (bits[chans[0]] + bits[chans[1]] <= best + n * MARGIN) {
+                result[chans[0]] = true;
+                result[chans[1]] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns which of the channels {left, right, mid, side} are used by the single stereo mode with the smallest
+     * estimated size, where each channel is estimated by the sum of the absolute values of its second differences
+     * (i.e. its residuals under fixed prediction of order 2). This costs one light pass over the samples.
+     * The two arrays must have the same length, and values that fit in signed int33.
+     */
+    public static boolean[] chooseChannels(long[] left, long[] right) {
+        int n = left.length;
+        if (right.length != n)
+            throw new IllegalArgumentException();
+        double sumL = 0, sumR = 0, sumM = 0, sumS = 0;
+        for (int i = 2; i < n; i++) {
+            long l = left[i] - 2 * left[i - 1] + left[i - 2];
+            long r = right[i] - 2 * right[i - 1] + right[i - 2];
+            sumL += Math.abs(l);
+            sumR += Math.abs(r);
+            sumM += Math.abs(l + r);  // Twice the mid channel's, which doesn't affect the comparison
+            sumS += Math.abs(l - r);
+        }
+        // Bits per sample grow with the log of the mean magnitude, so compare the products of the pairs
+        double[] energies = {sumL + 1, sumR + 1, sumM / 2 + 1, sumS + 1};
+        int[] best = MODE_CHANNELS[0];
+        for (int[] chans : MODE_CHANNELS) {
+            if (energies[chans[0]] * energies[chans[1]] < energies[best[0]] * energies[best[1]])
+                best = chans;
+        }
+        boolean[] result = new boolean[4];
+        result[best[0]] = true;
+        result[best[1]] = true;
+        return result;
+    }
+
+    /**
+     * Returns a rough number of bits to code n samples with the given autocorrelation, based on the
+     * error of the best linear predictor of order up to maxOrder. Only differences between these values are meaningful.
+     */
+    private static double estimateBits(double[] autocorr, int n, int maxOrder) {
+        if (autocorr[0] <= 0)
+            return 0;
+        double[][] coefs = LinearPredictiveEncoder.levinsonDurbin(autocorr, maxOrder);
+        int order = maxOrder;
+        while (order > 0 && coefs[order] == null)
+            order--;
+        double error = autocorr[0];
+        for (int j = 1; j <= order; j++)
+            error -= coefs[order][order - j] * autocorr[j];
+        // A Laplacian residual with this mean power costs about log2 of its standard deviation per sample, plus a constant
+        return 0.5 * n * Math.log(1 + Math.max(error, 0) / n) / Math.log(2);
+    }
+
+    // Constants
+
+    /** The number of lags of the correlations, which is also the predictor order of the estimate. */
+    private static final int ANALYSIS_ORDER = 8;
+
+    /**
+     * The bits per sample by which a mode's estimate may exceed the best one and still be searched. A wider margin
+     * prunes the actually smallest mode less often, but skips fewer of the four channels.
+     */
+    private static final double MARGIN = 0.05;
+
+    /** The channels {left, right, mid, side} = {0, 1, 2, 3} of the modes left/right, left/side, right/side and mid/side. */
+    private static final int[][] MODE_CHANNELS = {{0, 1}, {0, 3}, {1, 3}, {2, 3}};
+}
@@ -0,0 +1,305 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import io.nayuki.flac.common.StreamInfo;
+
+
+/**
+ * Encodes with variable block sizes like AdvancedFlacEncoder, but accepts the samples as they arrive and keeps
+ * only a bounded window of uncommitted base blocks. The block size choice is the same shortest-path dynamic
+ * programming, run forward: each boundary between base blocks remembers the smallest total size to reach it
+ * and the last frame on that path. Frames that every candidate path shares can no longer change and are written
+ * out immediately. If the window still grows beyond the given number of base blocks, the first frame of the
+ * currently best path is written out. With a window longer than the input, the chosen frames minimize
+ * the total estimated size exactly.
+ * Call write() any number of times, then finish() once. As with StreamingFlacEncoder,
+ * the caller writes the stream info block and should rewrite it after finish().
+ */
+public final class StreamingAdvancedFlacEncoder {
+
+    // Fields
+
+    private final StreamInfo info;
+    private final int baseSize;
+    private final int[] sizeMultiples;
+    private final int maxMultiple;
+    private final int windowBlocks;
+    private final SubframeEncoder.SearchOptions opts;
+    private BitOutputStream out;
+
+    /** Hashes the samples as they are written. */
+    private final MessageDigest hasher;
+
+    /** The samples from the start of the first uncommitted base block, [channel][0 : windowLen]. */
+    private final int[][] window;
+    private int windowLen;
+
+    /** The number of whole base blocks in the window, which is also the last node. */
+    private int numBlocks;
+
+    /** The number of samples per channel in the frames written so far. */
+    private long sampleOffset;
+
+    /** cells[i][p] estimates the frame of sizeMultiples[i] base blocks starting at node p, or is null if not computed. */
+    private final SizeEstimate<FrameEncoder>[][] cells;
+
+    // For each node q (the boundary before base block q of the window), the smallest total size of frames
+    // from node 0 to q (or Long.MAX_VALUE if q is unreachable), and the start node and size index of the last
+    // frame on that path. Node 0 is always the position right after the last written frame.
+    private final long[] bestSizes;
+    private final int[] backStarts;
+    private final int[] backMultiples;
+
+    /** Temporary array for counting how many candidate paths pass through each node. */
+    private final int[] pathCounts;
+
+    // Constructors
+
+    /**
+     * Constructs an encoder for the given stream, whose sample rate, number of channels and sample depth must already
+     * be set. Frames are sizeMultiples[i] * baseSize samples long, and at most windowBlocks base blocks are
+     * kept uncommitted, which must be at least the largest multiple.
+     */
+    public StreamingAdvancedFlacEncoder(StreamInfo info, int baseSize, int[] sizeMultiples, int windowBlocks, SubframeEncoder.SearchOptions opts, BitOutputStream out) {
+        this.info = Objects.requireNonNull(info);
+        this.opts = Objects.requireNonNull(opts);
+        this.out = Objects.requireNonNull(out);
+        this.sizeMultiples = sizeMultiples.clone();
+        if (baseSize < 1 || this.sizeMultiples.length == 0)
+            throw new IllegalArgumentException();
+        int max = 0;
+        for (int m : this.sizeMultiples) {
+            if (m < 1 || (long) m * baseSize > 65535)
+                throw new IllegalArgumentException("Invalid block size");
+            max = Math.max(m, max);
+        }
+        if (windowBlocks < max || (long) (windowBlocks + 1) * baseSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid window size");
+        if (info.numChannels < 1 || info.numChannels > 8)
+            throw new IllegalArgumentException("Invalid number of channels");
+        if (info.sampleDepth < 8 || info.sampleDepth > 32 || info.sampleDepth % 8 != 0)
+            throw new IllegalArgumentException("Unsupported bit depth");
+        this.baseSize = baseSize;
+        this.maxMultiple = max;
+        this.windowBlocks = windowBlocks;
+        try {  // Guaranteed available by the Java Cryptography Architecture
+            hasher = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+
+        window = new int[info.numChannels][(windowBlocks + 1) * baseSize];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        SizeEstimate<FrameEncoder>[][] temp = new SizeEstimate[this.sizeMultiples.length][windowBlocks + 2];
+        cells = temp;
+        bestSizes = new long[windowBlocks + 2];
+        backStarts = new int[bestSizes.length];
+        backMultiples = new int[bestSizes.length];
+        pathCounts = new int[bestSizes.length];
+        bestSizes[0] = 0;
+
+        info.minBlockSize = 0;
+        info.maxBlockSize = 0;
+        info.minFrameSize = 0;
+        info.maxFrameSize = 0;
+    }
+
+    // Methods
+
+    /**
+     * Appends the samples block[ : ][0 : len] to the stream, where each subarray is a channel. Candidate frames are
+     * searched as soon as their base blocks are complete, and settled frames are written to the output stream.
+     */
+    public void write(int[][] block, int len) throws IOException {
+        Objects.requireNonNull(block);
+        if (out == null)
+            throw new IllegalStateException("Already finished");
+        if (block.length != window.length)
+            throw new IllegalArgumentException("Wrong number of channels");
+        for (int[] chanSamples : block) {
+            if (len < 0 || len > chanSamples.length)
+                throw new IndexOutOfBoundsException();
+        }
+        StreamInfo.updateMd5Hash(hasher, block, 0, len, info.sampleDepth);
+
+        for (int off = 0; off < len; ) {
+            int n = Math.min(len - off, (numBlocks + 1) * baseSize - windowLen);
+            for (int ch = 0; ch < window.length; ch++)
+                System.arraycopy(block[ch], off, window[ch], windowLen, n);
+            windowLen += n;
+            off += n;
+            if (windowLen == (numBlocks + 1) * baseSize) {
+                numBlocks++;
+                updateNode(numBlocks, true);
+                commitSettled();
+                while (numBlocks > windowBlocks)
+                    commitFirstFrame();
+            }
+        }
+    }
+
+    /**
+     * Chooses and writes all the remaining frames, where frames at the end of the stream may be cut short, and sets
+     * the number of samples, MD5 hash, and block and frame size ranges of the stream info. No more samples can be
+     * written after this.
+     */
+    public void finish() throws IOException {
+        if (out == null)
+            throw new IllegalStateException("Already finished");
+        int end = (windowLen + baseSize - 1) / baseSize;
+        if (end > 0) {
+            if (end > numBlocks)  // Partial last base block
+                bestSizes[end] = Long.MAX_VALUE;
+            // Consider every frame that would extend past the last whole base block, truncated to the end of stream
+            for (int p = Math.max(end - maxMultiple, 0); p < end; p++) {
+                if (bestSizes[p] == Long.MAX_VALUE)
+                    continue;
+                for (int i = 0; i < sizeMultiples.length; i++) {
+                    if (p + sizeMultiples[i] <= numBlocks)
+                        continue;
+                    cells[i][p] = computeCell(p, Math.min(sizeMultiples[i] * baseSize, windowLen - p * baseSize));
+                    long size = bestSizes[p] + cells[i][p].sizeEstimate;
+                    if (size < bestSizes[end]) {
+                        bestSizes[end] = size;
+                        backStarts[end] = p;
+                        backMultiples[end] = i;
+                    }
+                }
+            }
+            writeFrames(end);
+        }
+        info.numSamples = sampleOffset;
+        info.md5Hash = hasher.digest();
+        out = null;
+    }
+
+    /**
+     * Sets the best size and last frame for node q from the nodes before it,
+     * also searching the candidate frames that end at q if compute is true.
+     */
+    private void updateNode(int q, boolean compute) {
+        bestSizes[q] = Long.MAX_VALUE;
+        for (int i = 0; i < sizeMultiples.length; i++) {
+            int p = q - sizeMultiples[i];
+            if (p < 0 || bestSizes[p] == Long.MAX_VALUE)
+                continue;
+            if (compute)
+                cells[i][p] = computeCell(p, sizeMultiples[i] * baseSize);
+            long size = bestSizes[p] + cells[i][p].sizeEstimate;
+            if (size < bestSizes[q]) {
+                bestSizes[q] = size;
+                backStarts[q] = p;
+                backMultiples[q] = i;
+            }
+        }
+    }
+
+    private SizeEstimate<FrameEncoder> computeCell(int p, int n) {
+        long[][] subsamples = FlacEncoder.getRange(window, p * baseSize, n);
+        SizeEstimate<FrameEncoder> result = FrameEncoder.computeBest(sampleOffset + (long) p * baseSize, subsamples, info.sampleDepth, info.sampleRate, opts);
+        result.encoder.releaseResiduals();  // Most cells are never written
+        return result;
+    }
+
+    /**
+     * Writes the frames that all the paths to the last maxMultiple nodes have in common. Any future frame
+     * must start at one of these nodes, so these frames are on every future best path.
+     */
+    private void commitSettled() throws IOException {
+        Arrays.fill(pathCounts, 0, numBlocks + 1, 0);
+        int numPaths = 0;
+        for (int q = Math.max(numBlocks - maxMultiple + 1, 0); q <= numBlocks; q++) {
+            if (bestSizes[q] == Long.MAX_VALUE)
+                continue;
+            numPaths++;
+            for (int x = q; x > 0; x = backStarts[x])
+                pathCounts[x]++;
+        }
+        int settled = 0;
+        for (int x = 1; x <= numBlocks; x++) {
+            if (numPaths > 0 && pathCounts[x] == numPaths)
+                settled = x;
+        }
+        if (settled > 0)
+            commit(settled);
+    }
+
+    /** Writes the first frame of the best path to the last maxMultiple nodes, to bound the window size. */
+    private void commitFirstFrame() throws IOException {
+        int best = -1;
+        for (int q = Math.max(numBlocks - maxMultiple + 1, 0); q <= numBlocks; q++) {
+            if (bestSizes[q] != Long.MAX_VALUE && (best == -1 || bestSizes[q] < bestSizes[best]))
+                best = q;
+        }
+        if (best <= 0)
+            throw new AssertionError();
+        int x = best;
+        while (backStarts[x] > 0)
+            x = backStarts[x];
+        commit(x);
+    }
+
+    /** Writes the frames on the best path to node c, then makes c the new node 0 and recomputes the best paths. */
+    private void commit(int c) throws IOException {
+        writeFrames(c);
+        int shift = c * baseSize;
+        for (int[] chanSamples : window)
+            System.arraycopy(chanSamples, shift, chanSamples, 0, windowLen - shift);
+        windowLen -= shift;
+        numBlocks -= c;
+        for (SizeEstimate<FrameEncoder>[] row : cells) {
+            System.arraycopy(row, c, row, 0, row.length - c);
+            Arrays.fill(row, row.length - c, row.length, null);
+        }
+        bestSizes[0] = 0;
+        for (int q = 1; q <= numBlocks; q++)
+            updateNode(q, false);
+    }
+
+    /** Encodes and writes the frames on the best path from node 0 to node c. */
+    private void writeFrames(int c) throws IOException {
+        List<Integer> ends = new ArrayList<>();
+        for (int x = c; x > 0; x = backStarts[x])
+            ends.add(x);
+        for (int k = ends.size() - 1; k >= 0; k--) {
+            int q = ends.get(k);
+            int p = backStarts[q];
+            FrameEncoder enc = cells[backMultiples[q]][p].encoder;
+            int n = enc.metadata.blockSize;
+            if (info.minBlockSize == 0 || n < info.minBlockSize)
+                info.minBlockSize = Math.max(n, 16);
+            info.maxBlockSize = Math.max(n, info.maxBlockSize);
+
+            FlacEncoder.writeFrame(info, enc, FlacEncoder.getRange(window, p * baseSize, n), out);
+            sampleOffset += n;
+        }
+    }
+}
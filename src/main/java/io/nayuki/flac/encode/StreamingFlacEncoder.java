@@ -0,0 +1,150 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import io.nayuki.flac.common.StreamInfo;
+
+
+/**
+ * Encodes audio frames with a fixed block size as the samples arrive, instead of taking the whole
+ * recording up front like FlacEncoder. Memory usage is proportional to the block size only.
+ * Call write() any number of times, then finish() once. Like FlacEncoder, this writes only the frames;
+ * the caller writes the "fLaC" marker and the stream info block before the first frame, and should
+ * rewrite the stream info block after finish() has filled in the sample count, MD5 hash and frame sizes.
+ * The output is identical to FlacEncoder's for the same samples and options.
+ */
+public final class StreamingFlacEncoder {
+
+    // Fields
+
+    private final StreamInfo info;
+    private final int blockSize;
+    private final SubframeEncoder.SearchOptions opt;
+    private BitOutputStream out;
+
+    /** Hashes the samples as they are written. */
+    private final MessageDigest hasher;
+
+    /** The samples of the frame being filled, [channel][0 : bufferLen]. */
+    private final long[][] buffer;
+    private int bufferLen;
+
+    /** The number of samples per channel in the frames written so far. */
+    private long sampleOffset;
+
+    // Constructors
+
+    /**
+     * Constructs an encoder for the given stream, whose sample rate, number of channels and sample depth must
+     * already be set. The block size fields of the stream info are set now, and the rest are set by finish().
+     */
+    public StreamingFlacEncoder(StreamInfo info, int blockSize, SubframeEncoder.SearchOptions opt, BitOutputStream out) {
+        this.info = Objects.requireNonNull(info);
+        this.opt = Objects.requireNonNull(opt);
+        this.out = Objects.requireNonNull(out);
+        if (blockSize < 1 || blockSize > 65535)
+            throw new IllegalArgumentException("Invalid block size");
+        if (info.numChannels < 1 || info.numChannels > 8)
+            throw new IllegalArgumentException("Invalid number of channels");
+        if (info.sampleDepth < 8 || info.sampleDepth > 32 || info.sampleDepth % 8 != 0)
+            throw new IllegalArgumentException("Unsupported bit depth");
+        this.blockSize = blockSize;
+        try {  // Guaranteed available by the Java Cryptography Architecture
+            hasher = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        buffer = new long[info.numChannels][blockSize];
+        bufferLen = 0;
+        sampleOffset = 0;
+
+        info.minBlockSize = blockSize;
+        info.maxBlockSize = blockSize;
+        info.minFrameSize = 0;
+        info.maxFrameSize = 0;
+    }
+
+    // Methods
+
+    /**
+     * Appends the samples block[ : ][0 : len] to the stream, where each subarray is a channel. Each frame is
+     * searched and written to the output stream as soon as it has blockSize samples.
+     */
+    public void write(int[][] block, int len) throws IOException {
+        Objects.requireNonNull(block);
+        if (out == null)
+            throw new IllegalStateException("Already finished");
+        if (block.length != buffer.length)
+            throw new IllegalArgumentException("Wrong number of channels");
+        for (int[] chanSamples : block) {
+            if (len < 0 || len > chanSamples.length)
+                throw new IndexOutOfBoundsException();
+        }
+        StreamInfo.updateMd5Hash(hasher, block, 0, len, info.sampleDepth);
+
+        for (int off = 0; off < len; ) {
+            int n = Math.min(len - off, blockSize - bufferLen);
+            for (int ch = 0; ch < buffer.length; ch++) {
+                int[] src = block[ch];
+                long[] dest = buffer[ch];
+                for (int i = 0; i < n; i++)
+                    dest[bufferLen + i] = src[off + i];
+            }
+            bufferLen += n;
+            off += n;
+            if (bufferLen == blockSize)
+                encodeBuffer(buffer);
+        }
+    }
+
+    /**
+     * Writes the final partial frame (if any), and sets the number of samples, MD5 hash and
+     * frame size range of the stream info. No more samples can be written after this.
+     */
+    public void finish() throws IOException {
+        if (out == null)
+            throw new IllegalStateException("Already finished");
+        if (bufferLen > 0) {
+            long[][] last = new long[buffer.length][];
+            for (int ch = 0; ch < buffer.length; ch++)
+                last[ch] = Arrays.copyOf(buffer[ch], bufferLen);
+            encodeBuffer(last);
+        }
+        info.numSamples = sampleOffset;
+        info.md5Hash = hasher.digest();
+        out = null;
+    }
+
+    /** Searches, encodes and writes one frame of the given samples, then empties the buffer. */
+    private void encodeBuffer(long[][] samples) throws IOException {
+        FrameEncoder enc = FrameEncoder.computeBest(sampleOffset, samples, info.sampleDepth, info.sampleRate, opt).encoder;
+        FlacEncoder.writeFrame(info, enc, samples, out);
+        sampleOffset += samples[0].length;
+        bufferLen = 0;
+    }
+}
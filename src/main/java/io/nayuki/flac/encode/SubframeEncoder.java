@@ -22,6 +22,7 @@
 package io.nayuki.flac.encode;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
 
 
@@ -57,28 +58,72 @@ public abstract class SubframeEncoder {
         // Detect number of trailing zero bits
         int shift = computeWastedBits(samples);
 
+        boolean estimateRice = opt.riceMethod != SearchOptions.RiceMethod.EXACT;
+
         // Start with verbatim as fallback
-        result = VerbatimEncoder.computeBest(samples, shift, sampleDepth);
+        SizeEstimate<SubframeEncoder> verbatim = VerbatimEncoder.computeBest(samples, shift, sampleDepth);
+        result = verbatim;
+
+        // A short last block limits the predictor orders, which need more samples than their order
+        int maxFixedOrder = Math.min(opt.maxFixedOrder, samples.length - 1);
+        int maxLpcOrder = Math.min(opt.maxLpcOrder, samples.length - 1);
 
         // Try fixed prediction encoding
-        for (int order = opt.minFixedOrder; 0 <= order && order <= opt.maxFixedOrder; order++) {
+        if (0 <= opt.minFixedOrder && opt.minFixedOrder <= maxFixedOrder) {
             SizeEstimate<SubframeEncoder> temp = FixedPredictionEncoder.computeBest(
-                    samples, shift, sampleDepth, order, opt.maxRiceOrder);
+                    samples, shift, sampleDepth, opt.minFixedOrder, maxFixedOrder, opt.maxRiceOrder, estimateRice);
             result = result.minimum(temp);
         }
 
-        // Try linear predictive coding
-        FastDotProduct fdp = new FastDotProduct(samples, Math.max(opt.maxLpcOrder, 0));
-        for (int order = opt.minLpcOrder; 0 <= order && order <= opt.maxLpcOrder; order++) {
-            SizeEstimate<SubframeEncoder> temp = LinearPredictiveEncoder.computeBest(
-                    samples, shift, sampleDepth, order, Math.min(opt.lpcRoundVariables, order), fdp, opt.maxRiceOrder);
-            result = result.minimum(temp);
+        // Try linear predictive coding (the windowed autocorrelations don't use the dot products)
+        if (opt.lpcMethod == SearchOptions.LpcMethod.AUTOCORRELATION && maxLpcOrder >= 1) {
+            if (opt.lpcWindows.isEmpty()) {
+                FastDotProduct fdp = new FastDotProduct(samples, maxLpcOrder);
+                double[][] coefs = LinearPredictiveEncoder.computeAutocorrelationCoefficients(fdp, maxLpcOrder);
+                result = computeBestLpc(samples, shift, sampleDepth, coefs, maxLpcOrder, opt, result);
+            } else {
+                for (ApodizationWindow win : opt.lpcWindows) {
+                    double[][] coefs = LinearPredictiveEncoder.computeAutocorrelationCoefficients(
+                            samples, win.getTable(samples.length), maxLpcOrder);
+                    result = computeBestLpc(samples, shift, sampleDepth, coefs, maxLpcOrder, opt, result);
+                }
+            }
+        } else if (0 <= opt.minLpcOrder && opt.minLpcOrder <= maxLpcOrder) {
+            FastDotProduct fdp = new FastDotProduct(samples, maxLpcOrder);
+            for (int order = opt.minLpcOrder; order <= maxLpcOrder; order++) {
+                SizeEstimate<SubframeEncoder> temp = LinearPredictiveEncoder.computeBest(
+                        samples, shift, sampleDepth, order, Math.min(opt.lpcRoundVariables, order), fdp, opt.maxRiceOrder, estimateRice);
+                if (temp != null)
+                    result = result.minimum(temp);
+            }
+        }
+
+        // Recompute the exact size of the winner only, and fall back to verbatim if the estimate was too optimistic
+        if (opt.riceMethod == SearchOptions.RiceMethod.ESTIMATE_THEN_EXACT && result != verbatim) {
+            long size = result.encoder.refineSize(samples, result.sizeEstimate, opt.maxRiceOrder);
+            result = new SizeEstimate<>(size, result.encoder).minimum(verbatim);
         }
 
         // Return the encoder found with the lowest bit length
         return result;
     }
 
+    /**
+     * Tries each LPC order from the search range up to maxOrder with the given coefficients (in the layout returned by
+     * LinearPredictiveEncoder.computeAutocorrelationCoefficients()), returning the smallest of them and the given result.
+     */
+    private static SizeEstimate<SubframeEncoder> computeBestLpc(long[] samples, int shift, int sampleDepth, double[][] coefs,
+            int maxOrder, SearchOptions opt, SizeEstimate<SubframeEncoder> result) {
+        for (int order = opt.minLpcOrder; order <= maxOrder && coefs[order] != null; order++) {
+            SizeEstimate<SubframeEncoder> temp = LinearPredictiveEncoder.computeBest(
+                    samples, shift, sampleDepth, coefs[order], Math.min(opt.lpcRoundVariables, order), opt.maxRiceOrder,
+                    opt.riceMethod != SearchOptions.RiceMethod.EXACT);
+            if (temp != null)  // Skips an order whose coefficients can't be quantized
+                result = result.minimum(temp);
+        }
+        return result;
+    }
+
     /**
      * Looks at each value in the array and computes the minimum number of trailing binary zeros
      * among all the elements. For example, computedwastedBits({0b10, 0b10010, 0b1100}) = 1.
@@ -120,6 +165,21 @@ public abstract class SubframeEncoder {
         sampleDepth = depth;
     }
 
+    /**
+     * Recomputes the size of this encoder's subframe for the given samples with the exact Rice partition search,
+     * given that its size was estimated, and updates the Rice partition order to match.
+     * The default implementation returns the estimate, which is right for encoders without a residual.
+     */
+    long refineSize(long[] samples, long estimate, int maxRiceOrder) {
+        return estimate;
+    }
+
+    /**
+     * Drops any residuals that this encoder kept from its size calculation to speed up encode(), which then
+     * recomputes them. Higher-level encoders that hold on to many candidate encoders should call this.
+     */
+    void releaseResiduals() {}
+
     /**
      * Encodes the given vector of audio sample data to the given bit output stream
      * using the current encoding method (dictated by subclasses and field values).
@@ -205,13 +265,35 @@ public abstract class SubframeEncoder {
          */
         public final int maxRiceOrder;
 
+        /** How the LPC coefficients are derived from the samples. Not null. */
+        public final LpcMethod lpcMethod;
+
+        /**
+         * The windows to apply to the samples before the autocorrelation LPC method, where each window is tried and
+         * the best result is kept. An empty list means the rectangular window. Ignored by the covariance method,
+         * which has no spectral leakage to reduce. Not null, and immutable.
+         */
+        public final List<ApodizationWindow> lpcWindows;
+
+        /** How the sizes of the residuals are calculated during the search. Not null. */
+        public final RiceMethod riceMethod;
+
+        /** Which stereo channel assignments FrameEncoder searches fully. Not null. */
+        public final StereoSearch stereoSearch;
+
         // Constructors
 
         /**
-         * Constructs a search options object based on the given values,
+         * Constructs a search options object based on the given values, with the covariance LPC method,
          * throwing an IllegalArgumentException if and only if they are nonsensical.
          */
         public SearchOptions(int minFixedOrder, int maxFixedOrder, int minLpcOrder, int maxLpcOrder, int lpcRoundVars, int maxRiceOrder) {
+            this(minFixedOrder, maxFixedOrder, minLpcOrder, maxLpcOrder, lpcRoundVars, maxRiceOrder, LpcMethod.COVARIANCE, List.of(),
+                    RiceMethod.EXACT, StereoSearch.EXHAUSTIVE);
+        }
+
+        private SearchOptions(int minFixedOrder, int maxFixedOrder, int minLpcOrder, int maxLpcOrder, int lpcRoundVars, int maxRiceOrder,
+                LpcMethod lpcMethod, List<ApodizationWindow> lpcWindows, RiceMethod riceMethod, StereoSearch stereoSearch) {
             // Check argument ranges
             if ((minFixedOrder != -1 || maxFixedOrder != -1) &&
                     !(0 <= minFixedOrder && minFixedOrder <= maxFixedOrder && maxFixedOrder <= 4))
@@ -231,6 +313,40 @@ public abstract class SubframeEncoder {
             this.maxLpcOrder = maxLpcOrder;
             this.lpcRoundVariables = lpcRoundVars;
             this.maxRiceOrder = maxRiceOrder;
+            this.lpcMethod = Objects.requireNonNull(lpcMethod);
+            this.lpcWindows = List.copyOf(lpcWindows);
+            this.riceMethod = Objects.requireNonNull(riceMethod);
+            this.stereoSearch = Objects.requireNonNull(stereoSearch);
+        }
+
+        // Methods
+
+        /** Returns a copy of these search options with the given LPC method. */
+        public SearchOptions withLpcMethod(LpcMethod method) {
+            return new SearchOptions(minFixedOrder, maxFixedOrder, minLpcOrder, maxLpcOrder, lpcRoundVariables, maxRiceOrder,
+                    method, lpcWindows, riceMethod, stereoSearch);
+        }
+
+        /**
+         * Returns a copy of these search options with the given LPC windows. For example, a list of
+         * tukey(0.5) plus partialTukey(2, 0.5) usually finds better coefficients than no window at all,
+         * so that a smaller maximum LPC order gives a similar size.
+         */
+        public SearchOptions withLpcWindows(List<ApodizationWindow> windows) {
+            return new SearchOptions(minFixedOrder, maxFixedOrder, minLpcOrder, maxLpcOrder, lpcRoundVariables, maxRiceOrder,
+                    lpcMethod, windows, riceMethod, stereoSearch);
+        }
+
+        /** Returns a copy of these search options with the given Rice size calculation method. */
+        public SearchOptions withRiceMethod(RiceMethod method) {
+            return new SearchOptions(minFixedOrder, maxFixedOrder, minLpcOrder, maxLpcOrder, lpcRoundVariables, maxRiceOrder,
+                    lpcMethod, lpcWindows, method, stereoSearch);
+        }
+
+        /** Returns a copy of these search options with the given stereo search method. */
+        public SearchOptions withStereoSearch(StereoSearch search) {
+            return new SearchOptions(minFixedOrder, maxFixedOrder, minLpcOrder, maxLpcOrder, lpcRoundVariables, maxRiceOrder,
+                    lpcMethod, lpcWindows, riceMethod, search);
         }
 
         // Constants for recommended defaults
@@ -253,5 +369,61 @@ public abstract class SubframeEncoder {
         public static final SearchOptions LAX_MEDIUM = new SearchOptions(0, 1, 2, 22, 0, 15);
         public static final SearchOptions LAX_BEST = new SearchOptions(0, 1, 2, 32, 0, 15);
         public static final SearchOptions LAX_INSANE = new SearchOptions(0, 1, 2, 32, 4, 15);
+
+        // Helper enumeration
+
+        /** Ways to compute the real-valued LPC coefficients before they are quantized. */
+        public enum LpcMethod {
+            /**
+             * Solves the least squares problem over exactly the samples being predicted, separately for each order.
+             * Usually gives the smallest output, but the time grows steeply with the maximum order.
+             */
+            COVARIANCE,
+
+            /**
+             * Runs the Levinson-Durbin recursion on the autocorrelation of the samples,
+             * which gives the coefficients of every order at once. Much faster at high orders.
+             */
+            AUTOCORRELATION,
+        }
+
+        /** Ways to calculate the size of the Rice-coded residuals of each candidate predictor. */
+        public enum RiceMethod {
+            /** Tallies the size at every Rice parameter for every value. */
+            EXACT,
+
+            /**
+             * Derives the size at the best Rice parameter of each partition from the sum of its values.
+             * Several times faster; the chosen predictors and partition orders are sometimes slightly worse.
+             */
+            ESTIMATE,
+
+            /**
+             * Like ESTIMATE, but then calculates the exact size of the chosen predictor, so that the higher-level
+             * encoders (which compare stereo modes and block sizes) see true sizes. Costs one exact pass per subframe.
+             */
+            ESTIMATE_THEN_EXACT,
+        }
+
+        /** Ways to choose which of the 4 channel assignments of a stereo frame to search. */
+        public enum StereoSearch {
+            /** Searches the left, right, mid and side channels fully, and takes the best pair. */
+            EXHAUSTIVE,
+
+            /**
+             * Estimates each assignment's size from the correlations of the left and right channels
+             * (from which those of mid and side are derived), and fully searches only the channels
+             * of the assignments that come close to the best estimate. A heuristic, which sometimes
+             * skips the channels of the assignment that EXHAUSTIVE would pick, for a slightly larger frame.
+             */
+            PRUNED,
+
+            /**
+             * Picks one assignment from a cheap energy estimate of each channel, and searches only its two channels.
+             * About twice as fast as EXHAUSTIVE for stereo, but occasionally picks a slightly worse assignment.
+             * Meant for the low-effort presets, where the channel searches dominate the encoding time.
+             */
+            ESTIMATED,
+        }
     }
 }
@@ -6,17 +6,18 @@
 
 package vavi.sound.sampled.flac.nayuki.spi;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Objects;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 
 import io.nayuki.flac.common.StreamInfo;
-import io.nayuki.flac.decode.ByteArrayFlacInput;
 import io.nayuki.flac.decode.FlacDecoder;
-import vavi.io.OutputEngine;
-import vavi.io.OutputEngineInputStream;
+import io.nayuki.flac.decode.InputStreamFlacInput;
 
 
 /**
@@ -35,77 +36,176 @@ public class Flac2PcmAudioInputStream extends AudioInputStream {
      * @param length the length in sample frames of the data in this stream.
      */
     public Flac2PcmAudioInputStream(AudioInputStream in, AudioFormat format, long length) throws IOException {
-        super(new OutputEngineInputStream(new FlacOutputEngine(in)), format, length);
+        super(new FlacInputStream(in), format, length);
     }
 
-    /** */
-    private static class FlacOutputEngine implements OutputEngine {
+    /**
+     * Decodes a FLAC block at a time and converts it into interleaved little endian PCM
+     * directly in the buffer given to {@link #read(byte[], int, int)}.
+     */
+    private static class FlacInputStream extends InputStream {
+
+        /** */
+        private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
 
         /** */
-        private DataOutputStream out;
+        private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
 
         /** */
         private final FlacDecoder decoder;
 
-        /** @throws IllegalArgumentException Only whole-byte sample depth supported */
-        public FlacOutputEngine(AudioInputStream in) throws IOException {
-            this.decoder = new FlacDecoder(new ByteArrayFlacInput(in.readAllBytes()));
+        /** */
+        private final int bytesPerSample;
+
+        /** bytes per sample frame (all channels) */
+        private final int frameSize;
+
+        /** PCM of the current block [ch][maxBlockSize] */
+        private final int[][] samples;
+
+        /** number of sample frames in the current block */
+        private int blockLength;
+
+        /** next sample frame in the current block */
+        private int index;
+
+        /** a sample frame split by a read shorter than the frame size */
+        private final byte[] partial;
+
+        /** next byte in partial, partial.length means empty */
+        private int partialIndex;
+
+        /** */
+        private boolean eof;
+
+        /** buffer for {@link #read()} */
+        private final byte[] single = new byte[1];
+
+        /**
+         * Reads only the metadata blocks here, audio frames are decoded on demand in {@link #read(byte[], int, int)}.
+         *
+         * @throws IllegalArgumentException Only whole-byte sample depth supported
+         */
+        public FlacInputStream(AudioInputStream in) throws IOException {
+            this.decoder = new FlacDecoder(new InputStreamFlacInput(in));
             while (decoder.readAndHandleMetadataBlock() != null) ;
             StreamInfo streamInfo = decoder.streamInfo;
             if (streamInfo.sampleDepth % 8 != 0)
                 throw new IllegalArgumentException("Only whole-byte sample depth supported");
-            this.samples = new int[streamInfo.numChannels][(int) streamInfo.numSamples];
-            for (int off = 0; ; ) {
-                int len = decoder.readAudioBlock(samples, off);
-                if (len == 0)
-                    break;
-                off += len;
-            }
+            this.samples = new int[streamInfo.numChannels][streamInfo.maxBlockSize];
             this.bytesPerSample = streamInfo.sampleDepth / 8;
+            this.frameSize = bytesPerSample * streamInfo.numChannels;
+            this.partial = new byte[frameSize];
+            this.partialIndex = partial.length;
         }
 
         @Override
-        public void initialize(OutputStream out) throws IOException {
-            if (this.out != null) {
-                throw new IOException("Already initialized");
-            } else {
-                this.out = new DataOutputStream(out);
-            }
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
         }
 
-        /** */
-        private int bytesPerSample;
-
-        /** PCM [ch][Hz*sec] */
-        private int[][] samples;
-
-        /** samples index */
-        private int index;
-
         @Override
-        public void execute() throws IOException {
-            if (out == null) {
-                throw new IOException("Not yet initialized");
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            while (partialIndex < partial.length && n < len) {
+                b[off + n++] = partial[partialIndex++];
+            }
+            while (n < len) {
+                if (index == blockLength) {
+                    if (eof) {
+                        break;
+                    }
+                    blockLength = decoder.readAudioBlock(samples, 0);
+                    index = 0;
+                    if (blockLength == 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                int frames = Math.min(blockLength - index, (len - n) / frameSize);
+                if (frames > 0) {
+                    toBytes(index, frames, b, off + n);
+                    index += frames;
+                    n += frames * frameSize;
+                } else {
+                    // less than a sample frame is wanted, keep the rest for the next read
+                    toBytes(index, 1, partial, 0);
+                    index++;
+                    partialIndex = 0;
+                    while (partialIndex < partial.length && n < len) {
+                        b[off + n++] = partial[partialIndex++];
+                    }
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        /** Converts samples[:][start : start + count] into interleaved little endian bytes at b[off :]. */
+        private void toBytes(int start, int count, byte[] b, int off) {
+            int end = start + count;
+            if (samples.length == 2) {
+                int[] left = samples[0];
+                int[] right = samples[1];
+                switch (bytesPerSample) {
+                case 1 -> {
+                    for (int i = start; i < end; i++, off += 2) {
+                        b[off] = (byte) (left[i] + 128);  // Convert to unsigned, as per WAV PCM conventions
+                        b[off + 1] = (byte) (right[i] + 128);
+                    }
+                }
+                case 2 -> {
+                    for (int i = start; i < end; i++, off += 4) {
+                        SHORT_LE.set(b, off, (short) left[i]);
+                        SHORT_LE.set(b, off + 2, (short) right[i]);
+                    }
+                }
+                case 3 -> {
+                    for (int i = start; i < end; i++, off += 6) {
+                        int l = left[i];
+                        int r = right[i];
+                        SHORT_LE.set(b, off, (short) l);
+                        b[off + 2] = (byte) (l >>> 16);
+                        SHORT_LE.set(b, off + 3, (short) r);
+                        b[off + 5] = (byte) (r >>> 16);
+                    }
+                }
+                default -> {
+                    for (int i = start; i < end; i++, off += 8) {
+                        INT_LE.set(b, off, left[i]);
+                        INT_LE.set(b, off + 4, right[i]);
+                    }
+                }
+                }
             } else {
-                if (index < samples[0].length) {
+                for (int i = start; i < end; i++) {
                     for (int[] sample : samples) {
-                        int val = sample[index];
-                        if (bytesPerSample == 1) {
-                            out.write(val + 128);  // Convert to unsigned, as per WAV PCM conventions
-                        } else {  // 2 <= bytesPerSample <= 4
-                            for (int k = 0; k < bytesPerSample; k++)
-                                out.write(val >>> (k * 8));  // Little endian
+                        int val = sample[i];
+                        switch (bytesPerSample) {
+                        case 1 -> b[off] = (byte) (val + 128);  // Convert to unsigned, as per WAV PCM conventions
+                        case 2 -> SHORT_LE.set(b, off, (short) val);
+                        case 3 -> {
+                            SHORT_LE.set(b, off, (short) val);
+                            b[off + 2] = (byte) (val >>> 16);
                         }
+                        default -> INT_LE.set(b, off, val);
+                        }
+                        off += bytesPerSample;
                     }
-                    index++;
-                } else {
-                    out.close();
                 }
             }
         }
 
         @Override
-        public void finish() throws IOException {
+        public int available() throws IOException {
+            return (blockLength - index) * frameSize + (partial.length - partialIndex);
+        }
+
+        @Override
+        public void close() throws IOException {
             decoder.close();
         }
     }
@@ -5,6 +5,7 @@
  */
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
@@ -21,10 +22,14 @@ import javax.sound.sampled.LineEvent;
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
+import io.nayuki.flac.common.StreamInfo;
+import io.nayuki.flac.decode.ByteArrayFlacInput;
+import io.nayuki.flac.decode.FlacDecoder;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import vavi.sound.SoundUtil;
+import vavi.sound.sampled.flac.nayuki.spi.Flac2PcmAudioInputStream;
 import vavi.sound.sampled.flac.nayuki.spi.FlacAudioFileReader;
 import vavi.sound.sampled.flac.nayuki.spi.FlacEncoding;
 import vavi.sound.sampled.flac.nayuki.spi.FlacFormatConversionProvider;
@@ -33,6 +38,7 @@ import vavi.util.StringUtil;
 import vavi.util.properties.annotation.Property;
 import vavi.util.properties.annotation.PropsEntity;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -212,6 +218,101 @@ if (!System.getProperty("vavi.test", "").equals("ide")) {
         clip.stop();
         clip.close();
     }
+
+    @Test
+    @DisplayName("decoded pcm is same as direct api")
+    void test6() throws Exception {
+        Path path = Paths.get(flac);
+
+        // reference: whole file decoded by api directly
+        byte[] expected = decodeDirectly(path);
+
+        AudioInputStream sourceAis = new FlacAudioFileReader().getAudioInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        AudioFormat inAudioFormat = sourceAis.getFormat();
+        AudioFormat outAudioFormat = new AudioFormat(
+                inAudioFormat.getSampleRate(),
+                inAudioFormat.getSampleSizeInBits(),
+                inAudioFormat.getChannels(),
+                true,
+                false);
+        AudioInputStream pcmAis = new FlacFormatConversionProvider().getAudioInputStream(outAudioFormat, sourceAis);
+        byte[] actual = pcmAis.readAllBytes();
+        pcmAis.close();
+Debug.println("bytes: " + actual.length);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    @DisplayName("reads splitting sample frames are same as test6")
+    void test7() throws Exception {
+        Path path = Paths.get(flac);
+        byte[] expected = decodeDirectly(path);
+
+        AudioInputStream pcmAis = openUnframed(path);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1021];
+        for (int i = 0, r; (r = pcmAis.read(buf, 0, 1 + i % buf.length)) != -1; i += 7) {
+            baos.write(buf, 0, r);
+        }
+        pcmAis.close();
+
+        assertArrayEquals(expected, baos.toByteArray());
+    }
+
+    @Test
+    @DisplayName("byte by byte reads are same as test6")
+    void test8() throws Exception {
+        Path path = Paths.get(flac);
+        byte[] expected = decodeDirectly(path);
+
+        AudioInputStream pcmAis = openUnframed(path);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int c; (c = pcmAis.read()) != -1; ) {
+            baos.write(c);
+        }
+        pcmAis.close();
+
+        assertArrayEquals(expected, baos.toByteArray());
+    }
+
+    /** Decodes the whole file into interleaved little endian pcm by the api directly. */
+    private static byte[] decodeDirectly(Path path) throws Exception {
+        try (FlacDecoder dec = new FlacDecoder(new ByteArrayFlacInput(Files.readAllBytes(path)))) {
+            while (dec.readAndHandleMetadataBlock() != null) ;
+            StreamInfo streamInfo = dec.streamInfo;
+            int bytesPerSample = streamInfo.sampleDepth / 8;
+            int[][] samples = new int[streamInfo.numChannels][65536];
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            for (int len; (len = dec.readAudioBlock(samples, 0)) > 0; ) {
+                for (int i = 0; i < len; i++) {
+                    for (int[] sample : samples) {
+                        for (int k = 0; k < bytesPerSample; k++)
+                            baos.write(sample[i] >>> (k * 8));
+                    }
+                }
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * Opens a pcm stream whose format has no frame size, because AudioInputStream rounds reads
+     * down to whole sample frames otherwise, and allows read() only for a frame size of 1.
+     */
+    private static AudioInputStream openUnframed(Path path) throws Exception {
+        AudioInputStream sourceAis = new FlacAudioFileReader().getAudioInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        AudioFormat inAudioFormat = sourceAis.getFormat();
+        AudioFormat outAudioFormat = new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED,
+                inAudioFormat.getSampleRate(),
+                inAudioFormat.getSampleSizeInBits(),
+                inAudioFormat.getChannels(),
+                AudioSystem.NOT_SPECIFIED,
+                inAudioFormat.getSampleRate(),
+                false);
+        return new Flac2PcmAudioInputStream(sourceAis, outAudioFormat, AudioSystem.NOT_SPECIFIED);
+    }
 }
 
 /* */
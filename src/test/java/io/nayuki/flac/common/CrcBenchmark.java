@@ -0,0 +1,125 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.common;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Measures the throughput of the CRC-8 and CRC-16 calculations over a frame-sized byte array,
+ * comparing the slicing-by-8 implementation in Crc against the previous bit-at-a-time
+ * loop (encoder) and byte-at-a-time table lookup (decoder).
+ * <p>Usage: run the main method with the test classpath, or use the JMH command line.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrcBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CrcBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /** Typical FLAC frame sizes in bytes. */
+    @Param({"1024", "16384"})
+    public int size;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(0).nextBytes(data);
+    }
+
+    @Benchmark
+    public int bitwise() {
+        int crc8 = 0;
+        int crc16 = 0;
+        for (byte x : data) {
+            int b = x & 0xFF;
+            crc8 ^= b;
+            crc16 ^= b << 8;
+            for (int i = 0; i < 8; i++) {
+                crc8 <<= 1;
+                crc16 <<= 1;
+                crc8 ^= (crc8 >>> 8) * 0x107;
+                crc16 ^= (crc16 >>> 16) * 0x18005;
+            }
+        }
+        return crc8 ^ crc16;
+    }
+
+    @Benchmark
+    public int bytewise() {
+        int crc8 = 0;
+        int crc16 = 0;
+        for (byte x : data) {
+            int b = x & 0xFF;
+            crc8 = CRC8_TABLE[crc8 ^ b] & 0xFF;
+            crc16 = CRC16_TABLE[(crc16 >>> 8) ^ b] ^ ((crc16 & 0xFF) << 8);
+        }
+        return crc8 ^ crc16;
+    }
+
+    @Benchmark
+    public int slicing8() {
+        return Crc.updateCrc8(0, data, 0, data.length) ^ Crc.updateCrc16(0, data, 0, data.length);
+    }
+
+    // The single tables that the decoder used before Crc existed
+
+    private static final byte[] CRC8_TABLE = new byte[256];
+    private static final char[] CRC16_TABLE = new char[256];
+
+    static {
+        for (int i = 0; i < CRC8_TABLE.length; i++) {
+            int temp8 = i;
+            int temp16 = i << 8;
+            for (int j = 0; j < 8; j++) {
+                temp8 = (temp8 << 1) ^ ((temp8 >>> 7) * 0x107);
+                temp16 = (temp16 << 1) ^ ((temp16 >>> 15) * 0x18005);
+            }
+            CRC8_TABLE[i] = (byte) temp8;
+            CRC16_TABLE[i] = (char) temp16;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.common;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Tests the slicing-by-8 CRCs in Crc against a bit-at-a-time reference implementation.
+ */
+class CrcTest {
+
+    @Test
+    void matchesBitwiseReference() {
+        Random rand = new Random(0);
+        byte[] data = new byte[1000];
+        for (int trial = 0; trial < 10000; trial++) {
+            rand.nextBytes(data);
+            int off = rand.nextInt(data.length + 1);
+            int len = rand.nextInt(data.length - off + 1);
+            int crc8 = rand.nextInt(1 << 8);
+            int crc16 = rand.nextInt(1 << 16);
+            assertEquals(bitwiseCrc8(crc8, data, off, len), Crc.updateCrc8(crc8, data, off, len));
+            assertEquals(bitwiseCrc16(crc16, data, off, len), Crc.updateCrc16(crc16, data, off, len));
+        }
+    }
+
+    @Test
+    void splitsAreEquivalent() {
+        Random rand = new Random(1);
+        byte[] data = new byte[500];
+        rand.nextBytes(data);
+        for (int split = 0; split <= data.length; split++) {
+            int crc8 = Crc.updateCrc8(0, data, 0, split);
+            int crc16 = Crc.updateCrc16(0, data, 0, split);
+            assertEquals(Crc.updateCrc8(0, data, 0, data.length), Crc.updateCrc8(crc8, data, split, data.length - split));
+            assertEquals(Crc.updateCrc16(0, data, 0, data.length), Crc.updateCrc16(crc16, data, split, data.length - split));
+        }
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        byte[] data = new byte[10];
+        assertThrows(IllegalArgumentException.class, () -> Crc.updateCrc8(0x100, data, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> Crc.updateCrc16(0x10000, data, 0, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> Crc.updateCrc8(0, data, 5, 6));
+        assertThrows(IndexOutOfBoundsException.class, () -> Crc.updateCrc16(0, data, -1, 1));
+    }
+
+    private static int bitwiseCrc8(int crc, byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            crc ^= b[i] & 0xFF;
+            for (int j = 0; j < 8; j++) {
+                crc <<= 1;
+                crc ^= (crc >>> 8) * 0x107;
+            }
+        }
+        return crc;
+    }
+
+    private static int bitwiseCrc16(int crc, byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            crc ^= (b[i] & 0xFF) << 8;
+            for (int j = 0; j < 8; j++) {
+                crc <<= 1;
+                crc ^= (crc >>> 16) * 0x18005;
+            }
+        }
+        return crc;
+    }
+}
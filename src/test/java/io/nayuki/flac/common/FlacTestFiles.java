@@ -0,0 +1,144 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import io.nayuki.flac.decode.ByteArrayFlacInput;
+import io.nayuki.flac.decode.FlacDecoder;
+import io.nayuki.flac.decode.FlacLowLevelInput;
+import io.nayuki.flac.decode.FrameDecoder;
+import io.nayuki.flac.encode.BitOutputStream;
+import io.nayuki.flac.encode.FlacEncoder;
+import io.nayuki.flac.encode.SubframeEncoder;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+/**
+ * Writes and reads whole FLAC files in memory for the tests of the encoders and decoders.
+ * Public only because those tests live in several packages.
+ */
+public final class FlacTestFiles {
+
+    /** Writes a whole FLAC file by running the given encoder, with the stream info block filled in afterward. */
+    public static Result encode(int[][] samples, int depth, Encoding encoding) throws IOException {
+        var bout = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bout);
+        out.writeInt(32, 0x664C6143);
+        StreamInfo info = new StreamInfo();
+        info.sampleRate = 44100;
+        info.numChannels = samples.length;
+        info.sampleDepth = depth;
+        info.numSamples = samples[0].length;
+        info.md5Hash = StreamInfo.getMd5Hash(samples, depth);
+        info.write(true, out);
+        encoding.run(info, out);
+        out.flush();
+
+        // Rewrite the stream info with the sizes that the encoder set
+        byte[] result = bout.toByteArray();
+        bout = new ByteArrayOutputStream();
+        out = new BitOutputStream(bout);
+        info.write(true, out);
+        out.flush();
+        System.arraycopy(bout.toByteArray(), 0, result, 4, bout.size());
+        return new Result(result, info);
+    }
+
+    /** Writes a whole FLAC file with FlacEncoder, using a block size of 4096 and the given search options. */
+    public static byte[] encode(int[][] samples, int depth, SubframeEncoder.SearchOptions opt) throws IOException {
+        return encode(samples, depth, (info, out) -> new FlacEncoder(info, samples, 4096, opt, out)).bytes;
+    }
+
+    /** Decodes the given FLAC file to an array of channels. */
+    public static int[][] decode(byte[] flac) throws IOException {
+        return decode(new ByteArrayFlacInput(flac));
+    }
+
+    /** Decodes the FLAC file from the given input frame by frame with FrameDecoder, and closes the input. */
+    public static int[][] decode(FlacLowLevelInput in) throws IOException {
+        try (FlacDecoder dec = new FlacDecoder(in)) {
+            while (dec.readAndHandleMetadataBlock() != null);
+            int[][] result = new int[dec.streamInfo.numChannels][(int) dec.streamInfo.numSamples];
+            FrameDecoder frames = new FrameDecoder(in, dec.streamInfo.sampleDepth);
+            for (int off = 0; off < result[0].length; )
+                off += frames.readFrame(result, off).blockSize;
+            assertNull(frames.readFrame(result, 0));
+            return result;
+        }
+    }
+
+    /**
+     * Returns signals that swing between the extremes of the given sample depth: white noise, a square wave,
+     * and a clipped sine wave, with the second channel inverted so that the side channel needs depth + 1 bits.
+     */
+    public static int[][] makeFullScaleSamples(int numChannels, int numSamples, int depth) {
+        Random rand = new Random(depth);
+        int[][] result = new int[numChannels][numSamples];
+        long max = (1L << (depth - 1)) - 1;
+        long min = -(1L << (depth - 1));
+        for (int i = 0; i < numSamples; i++) {
+            long x = switch (i / 1000 % 3) {
+                case 0 -> rand.nextLong() >> (64 - depth);
+                case 1 -> (i / 7 % 2 == 0) ? max : min;
+                default -> Math.max(Math.min(Math.round(Math.sin(i * 0.05) * 1.5 * max), max), min);
+            };
+            for (int ch = 0; ch < numChannels; ch++)
+                result[ch][i] = (int) (ch % 2 == 0 ? x : Math.min(-x, max));
+        }
+        return result;
+    }
+
+    /** Returns a quiet tone with a little noise in each channel, so that every kind of subframe gets used. */
+    public static int[][] makeSamples(int numChannels, int numSamples, int depth) {
+        Random rand = new Random(numChannels * 31L + depth);
+        int[][] result = new int[numChannels][numSamples];
+        double amplitude = Math.scalb(0.5, depth - 1);
+        for (int ch = 0; ch < numChannels; ch++) {
+            for (int i = 0; i < numSamples; i++) {
+                double x = Math.sin(i * 0.01 * (ch + 1)) + Math.sin(i * 0.003) * 0.5 + rand.nextGaussian() * 0.01;
+                result[ch][i] = (int) Math.round(x * amplitude * (i < numSamples / 2 ? 1 : 0.1));
+            }
+        }
+        return result;
+    }
+
+    private FlacTestFiles() {}
+
+    @FunctionalInterface
+    public interface Encoding {
+        void run(StreamInfo info, BitOutputStream out) throws IOException;
+    }
+
+    public static final class Result {
+        public final byte[] bytes;
+        public final StreamInfo info;
+
+        Result(byte[] bytes, StreamInfo info) {
+            this.bytes = bytes;
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.nayuki.flac.common.Crc;
+import io.nayuki.flac.encode.BitOutputStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Tests the bulk reading methods of AbstractFlacLowLevelInput against the data and
+ * against the default methods of FlacLowLevelInput, which read one value at a time.
+ */
+class FlacLowLevelInputTest {
+
+    @Test
+    void readSignedIntsMatchesDefault() throws IOException {
+        Random rand = new Random(1);
+        byte[] data = new byte[100000];
+        rand.nextBytes(data);
+        FlacLowLevelInput bulk = new ByteArrayFlacInput(data);
+        FlacLowLevelInput single = new DefaultMethodsInput(new ByteArrayFlacInput(data));
+        while (bulk.getPosition() < data.length - 1000) {
+            int bits = rand.nextInt(34);
+            int start = rand.nextInt(10);
+            int end = start + rand.nextInt(100);
+            long[] expect = new long[end + 3];
+            long[] actual = new long[end + 3];
+            single.readSignedInts(bits, expect, start, end);
+            bulk.readSignedInts(bits, actual, start, end);
+            assertArrayEquals(expect, actual, "bits=" + bits);
+        }
+    }
+
+    @Test
+    void readIntsMatchDefault() throws IOException {
+        Random rand = new Random(3);
+        var bout = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bout);
+        int[] params = new int[20000];
+        int[] counts = new int[params.length];
+        for (int i = 0; i < params.length; i++) {
+            // Alternately fixed-width values and Rice-coded values, which are up to 8 bits wider than the parameter
+            params[i] = rand.nextInt(i % 2 == 0 ? 33 : 32);
+            counts[i] = rand.nextInt(20);
+            for (int j = 0; j < counts[i]; j++) {
+                if (i % 2 == 0)
+                    out.writeInt(params[i], rand.nextInt());
+                else
+                    out.writeRiceSignedInt(params[i], rand.nextLong() >> (64 - Math.min(params[i] + 1 + rand.nextInt(9), 32)));
+            }
+        }
+        out.writeInt(32, 0);  // Padding
+        out.flush();
+        byte[] data = bout.toByteArray();
+
+        FlacLowLevelInput bulk = new ByteArrayFlacInput(data);
+        FlacLowLevelInput single = new DefaultMethodsInput(new ByteArrayFlacInput(data));
+        for (int i = 0; i < params.length; i++) {
+            int[] expect = new int[counts[i] + 2];
+            int[] actual = new int[counts[i] + 2];
+            if (i % 2 == 0) {
+                single.readSignedInts(params[i], expect, 1, counts[i] + 1);
+                bulk.readSignedInts(params[i], actual, 1, counts[i] + 1);
+            } else {
+                single.readRiceSignedInts(params[i], expect, 1, counts[i] + 1);
+                bulk.readRiceSignedInts(params[i], actual, 1, counts[i] + 1);
+            }
+            assertArrayEquals(expect, actual, "i=" + i);
+        }
+        assertEquals(single.getPosition(), bulk.getPosition());
+    }
+
+    @Test
+    void rejectsRiceValuesBeyond32Bits() throws IOException {
+        // With parameter 20, more than 4095 unary zeros make a value of at least 2^32
+        byte[] data = new byte[600];
+        data[512] = (byte) 0x80;  // Ends the unary part after 4096 zeros
+        for (FlacLowLevelInput in : new FlacLowLevelInput[] {
+                new ByteArrayFlacInput(data), new DefaultMethodsInput(new ByteArrayFlacInput(data))}) {
+            DataFormatException e = assertThrows(DataFormatException.class, () -> in.readRiceSignedInts(20, new int[1], 0, 1));
+            assertEquals("Residual value exceeds 32 bits", e.getMessage());
+        }
+
+        // Now 4095 zeros and 20 ones, the largest unsigned value that fits, i.e. the most negative int32
+        data[511] = 0x01;
+        data[512] = (byte) 0xFF;
+        data[513] = (byte) 0xFF;
+        data[514] = (byte) 0xF0;
+        for (FlacLowLevelInput in : new FlacLowLevelInput[] {
+                new ByteArrayFlacInput(data), new DefaultMethodsInput(new ByteArrayFlacInput(data))}) {
+            int[] result = new int[1];
+            in.readRiceSignedInts(20, result, 0, 1);
+            assertEquals(Integer.MIN_VALUE, result[0]);
+        }
+    }
+
+    @Test
+    void readFullyMatchesData() throws IOException {
+        Random rand = new Random(2);
+        byte[] data = new byte[100000];
+        rand.nextBytes(data);
+        FlacLowLevelInput in = new ByteArrayFlacInput(data);
+        while (in.getPosition() < data.length - 10000) {
+            in.readUint(rand.nextInt(4) * 8);  // Leaves whole bytes in the bit buffer
+            long start = in.getPosition();
+            in.resetCrcs();
+            byte[] b = new byte[rand.nextInt(9000)];
+            in.readFully(b);
+            assertArrayEquals(Arrays.copyOfRange(data, (int) start, (int) start + b.length), b);
+            assertEquals(start + b.length, in.getPosition());
+            assertEquals(Crc.updateCrc16(0, b, 0, b.length), in.getCrc16());
+        }
+        in.seekTo(data.length - 5);
+        assertThrows(EOFException.class, () -> in.readFully(new byte[6]));
+    }
+
+    @Test
+    void seekWithinBufferMatchesFreshInput() throws IOException {
+        Random rand = new Random(4);
+        byte[] data = new byte[100000];
+        rand.nextBytes(data);
+        CountingInput in = new CountingInput(data, 1000);
+
+        // Consume the first buffer [0, 1000) exactly, then seek to its end without touching the underlying stream
+        for (int i = 0; i < 1000; i++)
+            in.readByte();
+        checkSeek(in, data, 1000, rand);
+        assertEquals(0, in.underlyingSeeks);
+
+        for (int i = 0; i < 2000; i++) {
+            // Read ahead a random amount, then seek back to a random position in the data read so far
+            in.readUint(rand.nextInt(33));
+            long end = in.getPosition();
+            long pos = Math.max(end - rand.nextInt(1200), 0);
+            int seeks = in.underlyingSeeks;
+            boolean buffered = in.bufferStart <= pos && pos <= in.bufferEnd;
+            checkSeek(in, data, pos, rand);
+            assertEquals(buffered ? seeks : seeks + 1, in.underlyingSeeks);
+            if (in.getPosition() > data.length - 2000)
+                checkSeek(in, data, 0, rand);
+        }
+    }
+
+    /** Seeks the given input, then checks that it reads like a fresh input seeked to the same position. */
+    private static void checkSeek(FlacLowLevelInput in, byte[] data, long pos, Random rand) throws IOException {
+        FlacLowLevelInput fresh = new ByteArrayFlacInput(data);
+        fresh.seekTo(pos);
+        in.seekTo(pos);
+        for (FlacLowLevelInput x : new FlacLowLevelInput[] {in, fresh}) {
+            assertEquals(pos, x.getPosition());
+            assertEquals(0, x.getBitPosition());
+            assertEquals(0, x.getCrc8());
+            assertEquals(0, x.getCrc16());
+        }
+        int bits = 0;
+        for (int i = rand.nextInt(10); i > 0; i--) {
+            int n = rand.nextInt(33);
+            assertEquals(fresh.readUint(n), in.readUint(n));
+            bits += n;
+        }
+        assertEquals(fresh.readUint(-bits & 7), in.readUint(-bits & 7));
+        int len = (int) (in.getPosition() - pos);
+        assertEquals(fresh.getPosition(), in.getPosition());
+        assertEquals(Crc.updateCrc8(0, data, (int) pos, len), in.getCrc8());
+        assertEquals(Crc.updateCrc16(0, data, (int) pos, len), in.getCrc16());
+        assertEquals(fresh.getCrc16(), in.getCrc16());
+    }
+
+    /** Reads a byte array with a read buffer of the given size, and counts the seeks that reach the underlying data. */
+    static final class CountingInput extends AbstractFlacLowLevelInput {
+
+        private final byte[] data;
+        private int offset;
+        int underlyingSeeks;
+        long bufferStart = -1;  // The range of the most recent read of the underlying data
+        long bufferEnd = -1;
+
+        CountingInput(byte[] data, int bufferSize) {
+            super(bufferSize);
+            this.data = data;
+        }
+
+        @Override
+        public long getLength() {
+            return data.length;
+        }
+
+        @Override
+        public void seekTo(long pos) {
+            if (seekWithinBuffer(pos))
+                return;
+            underlyingSeeks++;
+            offset = (int) pos;
+            positionChanged(pos);
+        }
+
+        @Override
+        protected int readUnderlying(byte[] buf, int off, int len) {
+            int n = Math.min(data.length - offset, len);
+            if (n == 0)
+                return -1;
+            System.arraycopy(data, offset, buf, off, n);
+            bufferStart = offset;
+            offset += n;
+            bufferEnd = offset;
+            return n;
+        }
+    }
+
+    /**
+     * Delegates only the abstract methods of FlacLowLevelInput, so that the default methods are used.
+     */
+    static final class DefaultMethodsInput implements FlacLowLevelInput {
+
+        private final FlacLowLevelInput in;
+
+        DefaultMethodsInput(FlacLowLevelInput in) {
+            this.in = in;
+        }
+
+        @Override public long getLength() { return in.getLength(); }
+        @Override public long getPosition() { return in.getPosition(); }
+        @Override public int getBitPosition() { return in.getBitPosition(); }
+        @Override public void seekTo(long pos) throws IOException { in.seekTo(pos); }
+        @Override public int readUint(int n) throws IOException { return in.readUint(n); }
+        @Override public int readSignedInt(int n) throws IOException { return in.readSignedInt(n); }
+        @Override public void readRiceSignedInts(int param, long[] result, int start, int end) throws IOException { in.readRiceSignedInts(param, result, start, end); }
+        @Override public int readByte() throws IOException { return in.readByte(); }
+        @Override public void readFully(byte[] b) throws IOException { in.readFully(b); }
+        @Override public void resetCrcs() { in.resetCrcs(); }
+        @Override public int getCrc8() { return in.getCrc8(); }
+        @Override public int getCrc16() { return in.getCrc16(); }
+        @Override public void close() throws IOException { in.close(); }
+    }
+}
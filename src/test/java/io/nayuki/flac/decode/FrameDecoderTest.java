@@ -0,0 +1,128 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.encode.BitOutputStream;
+import io.nayuki.flac.encode.SubframeEncoder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Tests that FrameDecoder decodes encoded audio bit-exactly at common sample depths, both with the bulk reading
+ * methods of ByteArrayFlacInput and with the default methods of FlacLowLevelInput, and that it rejects frames
+ * whose restored samples exceed the sample depth.
+ */
+class FrameDecoderTest {
+
+    @Test
+    void bitExactAtAllDepths() throws IOException {
+        for (int depth : new int[] {8, 16, 24, 32}) {
+            int[][] samples = makeSamples(depth);
+            byte[] flac = FlacTestFiles.encode(samples, depth, SubframeEncoder.SearchOptions.SUBSET_BEST);
+            assertArrayEquals(samples, FlacTestFiles.decode(new ByteArrayFlacInput(flac)), "depth=" + depth);
+            assertArrayEquals(samples, FlacTestFiles.decode(new FlacLowLevelInputTest.DefaultMethodsInput(new ByteArrayFlacInput(flac))), "depth=" + depth);
+        }
+    }
+
+    @Test
+    void rejectsPostLpcOverflow() throws IOException {
+        // Depth 16 restores samples in ints with LpcKernels, depth 32 in longs
+        for (int depth : new int[] {16, 32}) {
+            long max = (1L << (depth - 1)) - 1;
+            for (boolean lpc : new boolean[] {false, true}) {
+                // Order 1 prediction: max, then max + 1
+                byte[] ok = makeOrder1Frame(depth, lpc, max - 1, 1);
+                byte[] bad = makeOrder1Frame(depth, lpc, max, 1);
+                int[][] out = new int[1][2];
+                new FrameDecoder(new ByteArrayFlacInput(ok), depth).readFrame(out, 0);
+                assertArrayEquals(new int[] {(int) max - 1, (int) max}, out[0]);
+                DataFormatException e = assertThrows(DataFormatException.class,
+                    () -> new FrameDecoder(new ByteArrayFlacInput(bad), depth).readFrame(out, 0));
+                assertEquals("Post-LPC result exceeds bit depth", e.getMessage(), "depth=" + depth + " lpc=" + lpc);
+            }
+        }
+
+        int[] data = {32767, 1};
+        assertThrows(DataFormatException.class, () -> LpcKernels.restoreFixed(data.clone(), 1, 16, 2));
+        assertThrows(DataFormatException.class, () -> LpcKernels.restoreLpc(data.clone(), new int[] {1}, 16, 0, 2));
+    }
+
+    /** Returns a mono frame of 2 samples with a fixed or LPC order 1 subframe, whose warm-up sample and residual are given. */
+    private static byte[] makeOrder1Frame(int depth, boolean lpc, long warmup, int residual) throws IOException {
+        var bout = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bout);
+        FrameInfo info = new FrameInfo();
+        info.frameIndex = -1;
+        info.sampleOffset = 0;
+        info.numChannels = 1;
+        info.channelAssignment = 0;
+        info.blockSize = 2;
+        info.sampleRate = 44100;
+        info.sampleDepth = depth;
+        info.writeHeader(out);
+
+        out.writeInt(1, 0);
+        out.writeInt(6, lpc ? 0x20 : 0x09);  // Order 1
+        out.writeInt(1, 0);  // No wasted bits
+        out.writeInt(depth, (int) warmup);
+        if (lpc) {
+            out.writeInt(4, 2 - 1);  // Coefficient precision
+            out.writeInt(5, 0);  // Shift
+            out.writeInt(2, 1);  // Coefficient
+        }
+        out.writeInt(2, 0);  // Rice coding with 4-bit parameters
+        out.writeInt(4, 0);  // One partition
+        out.writeInt(4, 0);  // Parameter
+        out.writeRiceSignedInt(0, residual);
+        out.alignToByte();
+        out.writeInt(16, out.getCrc16());
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    /** Returns a stereo tone with noise, followed by full-scale noise, whose side channel needs depth + 1 bits. */
+    private static int[][] makeSamples(int depth) {
+        Random rand = new Random(depth);
+        int[][] result = new int[2][30000];
+        double amplitude = Math.scalb(0.4, depth - 1);
+        for (int i = 0; i < result[0].length; i++) {
+            if (i < 20000) {
+                for (int ch = 0; ch < 2; ch++)
+                    result[ch][i] = (int) Math.round((Math.sin(i * 0.01 * (ch + 1)) + rand.nextGaussian() * 0.01) * amplitude);
+            } else {
+                result[0][i] = (int) (rand.nextLong() >> (64 - depth));
+                result[1][i] = i % 2 == 0 ? ~result[0][i] : (int) (rand.nextLong() >> (64 - depth));
+            }
+        }
+        return result;
+    }
+}
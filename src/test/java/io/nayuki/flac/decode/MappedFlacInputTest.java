@@ -0,0 +1,76 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import io.nayuki.flac.common.StreamInfo;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Tests MappedFlacInput against ByteArrayFlacInput.
+ */
+class MappedFlacInputTest {
+
+    static final File FILE = new File("src/test/resources/test.flac");
+
+    @Test
+    void decodesLikeByteArrayInput() throws IOException {
+        int[][] expect = decode(new ByteArrayFlacInput(Files.readAllBytes(FILE.toPath())));
+        int[][] actual = decode(new MappedFlacInput(FILE, 1000));
+        assertArrayEquals(expect, actual);
+    }
+
+    @Test
+    void seekToRejectsOutOfRange() throws IOException {
+        try (MappedFlacInput in = new MappedFlacInput(FILE)) {
+            assertThrows(IllegalArgumentException.class, () -> in.seekTo(-1));
+            assertThrows(IllegalArgumentException.class, () -> in.seekTo(in.getLength() + 1));
+            in.seekTo(in.getLength());
+            assertEquals(-1, in.readByte());
+            in.seekTo(0);
+            assertEquals('f', in.readByte());
+        }
+    }
+
+    private static int[][] decode(FlacLowLevelInput input) throws IOException {
+        try (FlacDecoder dec = new FlacDecoder(input)) {
+            while (dec.readAndHandleMetadataBlock() != null);
+            StreamInfo info = dec.streamInfo;
+            int[][] samples = new int[info.numChannels][(int) info.numSamples];
+            for (int off = 0; ; ) {
+                int n = dec.readAudioBlock(samples, off);
+                if (n == 0)
+                    break;
+                off += n;
+            }
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.encode.SubframeEncoder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that ParallelFrameDecoder returns the same frames as FrameDecoder, including
+ * when a frame's data contains a copy of the next frame's header.
+ */
+class ParallelFrameDecoderTest {
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @AfterAll
+    static void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void matchesFrameDecoder() throws IOException {
+        byte[] flac = Files.readAllBytes(Paths.get("src/test/resources/test.flac"));
+        int[][] expect = FlacTestFiles.decode(new ByteArrayFlacInput(flac));
+        assertArrayEquals(expect, decodeParallel(new ByteArrayFlacInput(flac)));
+        // Length unknown, so read one byte at a time
+        assertArrayEquals(expect, decodeParallel(new InputStreamFlacInput(new ByteArrayInputStream(flac))));
+    }
+
+    @Test
+    void falseSyncCodeInFrameData() throws IOException {
+        // With fixed prediction only, white noise makes verbatim subframes, whose 16-bit samples are byte-aligned in the stream
+        Random rand = new Random(7);
+        int[][] samples = new int[1][20000];
+        for (int i = 0; i < samples[0].length; i++)
+            samples[0][i] = rand.nextInt(65536) - 32768;
+        byte[] flac = FlacTestFiles.encode(samples, 16, SubframeEncoder.SearchOptions.SUBSET_ONLY_FIXED);
+
+        // Copy the first 8 bytes of the second frame's header into the samples of the first frame, twice
+        byte[] header = null;
+        for (int i = 42; header == null; i++) {
+            if ((flac[i] & 0xFF) == 0xFF && (flac[i + 1] & 0xFE) == 0xF8) {
+                try (FlacLowLevelInput in = new ByteArrayFlacInput(Arrays.copyOfRange(flac, i, i + 16))) {
+                    if (FrameInfo.readFrame(in).sampleOffset == 4096)
+                        header = Arrays.copyOfRange(flac, i, i + 8);
+                } catch (DataFormatException e) {}
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            samples[0][1000 + i] = (short) ((header[i * 2] & 0xFF) << 8 | (header[i * 2 + 1] & 0xFF));
+            samples[0][1700 + i] = samples[0][1000 + i];
+        }
+        flac = FlacTestFiles.encode(samples, 16, SubframeEncoder.SearchOptions.SUBSET_ONLY_FIXED);
+        int copies = 0;
+        for (int i = 0; i + header.length <= flac.length; i++) {
+            if (Arrays.equals(flac, i, i + header.length, header, 0, header.length))
+                copies++;
+        }
+        assertEquals(3, copies);
+
+        assertArrayEquals(samples, decodeParallel(new ByteArrayFlacInput(flac)));
+    }
+
+    @Test
+    void corruptDataThrowsLikeFrameDecoder() throws IOException {
+        byte[] flac = Files.readAllBytes(Paths.get("src/test/resources/test.flac"));
+        flac[flac.length / 2] ^= 0x55;
+        Class<?> expect = null;
+        try {
+            FlacTestFiles.decode(new ByteArrayFlacInput(flac));
+        } catch (IOException | RuntimeException e) {
+            expect = e.getClass();
+        }
+        Class<?> actual = null;
+        try {
+            decodeParallel(new ByteArrayFlacInput(flac));
+        } catch (IOException | RuntimeException e) {
+            actual = e.getClass();
+        }
+        assertTrue(expect != null);
+        assertEquals(expect, actual);
+    }
+
+    private static int[][] decodeParallel(FlacLowLevelInput in) throws IOException {
+        FlacDecoder dec = new FlacDecoder(in);
+        while (dec.readAndHandleMetadataBlock() != null);
+        int[][] result = new int[dec.streamInfo.numChannels][(int) dec.streamInfo.numSamples];
+        ParallelFrameDecoder frames = new ParallelFrameDecoder(in, dec.streamInfo, executor);
+        for (int off = 0; off < result[0].length; )
+            off += frames.readFrame(result, off).blockSize;
+        assertEquals(null, frames.readFrame(result, 0));
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.common.StreamInfo;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that PipelinedFrameDecoder returns the same frames and throws the same exceptions as FrameDecoder,
+ * and that it leaves the input at a frame boundary when closed early.
+ */
+class PipelinedFrameDecoderTest {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterAll
+    static void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void matchesFrameDecoder() throws IOException {
+        byte[] flac = Files.readAllBytes(Paths.get("src/test/resources/test.flac"));
+        int[][] expect = FlacTestFiles.decode(new ByteArrayFlacInput(flac));
+        // Sequential runs share the single thread, so each one must have released it
+        for (int i = 0; i < 3; i++)
+            assertArrayEquals(expect, decodePipelined(new ByteArrayFlacInput(flac)));
+    }
+
+    @Test
+    void corruptDataThrowsLikeFrameDecoder() throws IOException {
+        byte[] flac = Files.readAllBytes(Paths.get("src/test/resources/test.flac"));
+        flac[flac.length / 2] ^= 0x55;
+        Class<?> expect = null;
+        try {
+            FlacTestFiles.decode(new ByteArrayFlacInput(flac));
+        } catch (IOException | RuntimeException e) {
+            expect = e.getClass();
+        }
+        Class<?> actual = null;
+        try {
+            decodePipelined(new ByteArrayFlacInput(flac));
+        } catch (IOException | RuntimeException e) {
+            actual = e.getClass();
+        }
+        assertTrue(expect != null);
+        assertEquals(expect, actual);
+    }
+
+    @Test
+    void closeMidStream() throws IOException {
+        byte[] flac = Files.readAllBytes(Paths.get("src/test/resources/test.flac"));
+        int[][] expect = FlacTestFiles.decode(new ByteArrayFlacInput(flac));
+        FlacLowLevelInput in = new ByteArrayFlacInput(flac);
+        FlacDecoder dec = new FlacDecoder(in);
+        while (dec.readAndHandleMetadataBlock() != null);
+        StreamInfo info = dec.streamInfo;
+        int[][] result = new int[info.numChannels][(int) info.numSamples];
+
+        var frames = new PipelinedFrameDecoder(in, info, executor);
+        int off = 0;
+        for (int i = 0; i < 2; i++)
+            off += frames.readFrame(result, off).blockSize;
+        frames.close();
+        frames.close();
+        assertThrows(IllegalStateException.class, () -> frames.readFrame(result, 0));
+
+        // The parser may have read ahead, but it must have stopped at a frame boundary
+        FrameDecoder rest = new FrameDecoder(in, info.sampleDepth);
+        int[][] block = new int[info.numChannels][info.maxBlockSize];
+        FrameInfo meta = rest.readFrame(block, 0);
+        long start = meta.sampleOffset != -1 ? meta.sampleOffset : (long) meta.frameIndex * info.maxBlockSize;
+        assertTrue(start >= off);
+        for (int ch = 0; ch < info.numChannels; ch++) {
+            assertArrayEquals(Arrays.copyOfRange(expect[ch], 0, off), Arrays.copyOf(result[ch], off));
+            assertArrayEquals(Arrays.copyOfRange(expect[ch], (int) start, (int) start + meta.blockSize),
+                Arrays.copyOf(block[ch], meta.blockSize));
+        }
+    }
+
+    @Test
+    void rejectsSameThreadExecutor() throws IOException {
+        byte[] flac = Files.readAllBytes(Paths.get("src/test/resources/test.flac"));
+        FlacLowLevelInput in = new ByteArrayFlacInput(flac);
+        FlacDecoder dec = new FlacDecoder(in);
+        while (dec.readAndHandleMetadataBlock() != null);
+        assertThrows(IllegalArgumentException.class, () -> new PipelinedFrameDecoder(in, dec.streamInfo, Runnable::run));
+    }
+
+    private static int[][] decodePipelined(FlacLowLevelInput in) throws IOException {
+        FlacDecoder dec = new FlacDecoder(in);
+        while (dec.readAndHandleMetadataBlock() != null);
+        int[][] result = new int[dec.streamInfo.numChannels][(int) dec.streamInfo.numSamples];
+        try (var frames = new PipelinedFrameDecoder(in, dec.streamInfo, executor)) {
+            for (int off = 0; off < result[0].length; )
+                off += frames.readFrame(result, off).blockSize;
+            assertNull(frames.readFrame(result, 0));
+            assertNull(frames.readFrame(result, 0));
+        }
+        return result;
+    }
+}
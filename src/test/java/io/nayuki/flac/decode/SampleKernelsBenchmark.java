@@ -0,0 +1,123 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Measures the throughput of the mid-side decorrelation, wasted-bits shift and narrowing passes
+ * over one block, comparing the plain loops of SampleKernels against SampleKernels.getInstance(),
+ * which is VectorSampleKernels when the project is built with the "vector" profile.
+ * The in-place passes are applied repeatedly to the same arrays, which doesn't affect their speed.
+ * <p>Usage: run the main method with the test classpath, or use the JMH command line.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SampleKernelsBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SampleKernelsBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /** Typical FLAC block sizes. */
+    @Param({"1152", "4096"})
+    public int blockSize;
+
+    private final SampleKernels scalar = new SampleKernels();
+    private final SampleKernels vector = SampleKernels.getInstance();
+
+    private long[] mid;
+    private long[] side;
+    private long[] samples;
+    private int[] output;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(0);
+        mid = new long[blockSize];
+        side = new long[blockSize];
+        samples = new long[blockSize];
+        output = new int[blockSize];
+        for (int i = 0; i < blockSize; i++) {
+            mid[i] = rand.nextInt(1 << 16) - (1 << 15);
+            side[i] = rand.nextInt(1 << 17) - (1 << 16);
+            samples[i] = rand.nextInt(1 << 16) - (1 << 15);
+        }
+    }
+
+    @Benchmark
+    public long[] scalarMidSide() {
+        scalar.midSide(mid, side, blockSize);
+        return mid;
+    }
+
+    @Benchmark
+    public long[] vectorMidSide() {
+        vector.midSide(mid, side, blockSize);
+        return mid;
+    }
+
+    @Benchmark
+    public long[] scalarShift() {
+        scalar.shiftLeft(side, blockSize, 1);
+        return side;
+    }
+
+    @Benchmark
+    public long[] vectorShift() {
+        vector.shiftLeft(side, blockSize, 1);
+        return side;
+    }
+
+    @Benchmark
+    public int[] scalarNarrow() {
+        scalar.narrow(samples, output, 0, blockSize, 16);
+        return output;
+    }
+
+    @Benchmark
+    public int[] vectorNarrow() {
+        vector.narrow(samples, output, 0, blockSize, 16);
+        return output;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.decode;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+/**
+ * Tests that the implementation returned by SampleKernels.getInstance() matches the plain loops of SampleKernels
+ * on random blocks, including values that narrow() must reject. Skipped unless VectorSampleKernels was built
+ * (with the "vector" profile) and the jdk.incubator.vector module is present.
+ */
+class SampleKernelsTest {
+
+    private static final SampleKernels plain = new SampleKernels();
+    private static final SampleKernels fast = SampleKernels.getInstance();
+
+    @Test
+    void longKernelsMatch() {
+        assumeTrue(fast.getClass() != SampleKernels.class);
+        Random rand = new Random(1);
+        for (int trial = 0; trial < 3000; trial++) {
+            int n = rand.nextInt(300);
+            int depth = rand.nextInt(32) + 1;
+            long[] a = randomLongs(rand, n + rand.nextInt(4), depth);
+            long[] b = randomLongs(rand, a.length, depth + 1);
+            int shift = rand.nextInt(63) + 1;
+            int op = rand.nextInt(4);
+            long[] a0 = a.clone(), b0 = b.clone();
+            long[] a1 = a.clone(), b1 = b.clone();
+            for (SampleKernels k : new SampleKernels[]{plain, fast}) {
+                long[] x = k == plain ? a0 : a1;
+                long[] y = k == plain ? b0 : b1;
+                switch (op) {
+                    case 0 -> k.leftSide(x, y, n);
+                    case 1 -> k.sideRight(y, x, n);
+                    case 2 -> k.midSide(x, y, n);
+                    case 3 -> k.shiftLeft(x, n, shift);
+                }
+            }
+            assertArrayEquals(a0, a1);
+            assertArrayEquals(b0, b1);
+        }
+    }
+
+    @Test
+    void intKernelsMatch() {
+        assumeTrue(fast.getClass() != SampleKernels.class);
+        Random rand = new Random(2);
+        for (int trial = 0; trial < 3000; trial++) {
+            int n = rand.nextInt(300);
+            int depth = rand.nextInt(24) + 1;
+            int[] a = randomInts(rand, n + rand.nextInt(4), depth);
+            int[] b = randomInts(rand, a.length, depth + 1);
+            int shift = rand.nextInt(31) + 1;
+            int op = rand.nextInt(4);
+            int[] a0 = a.clone(), b0 = b.clone();
+            int[] a1 = a.clone(), b1 = b.clone();
+            for (SampleKernels k : new SampleKernels[]{plain, fast}) {
+                int[] x = k == plain ? a0 : a1;
+                int[] y = k == plain ? b0 : b1;
+                switch (op) {
+                    case 0 -> k.leftSide(x, y, n);
+                    case 1 -> k.sideRight(y, x, n);
+                    case 2 -> k.midSide(x, y, n);
+                    case 3 -> k.shiftLeft(x, n, shift);
+                }
+            }
+            assertArrayEquals(a0, a1);
+            assertArrayEquals(b0, b1);
+        }
+    }
+
+    @Test
+    void narrowMatches() {
+        assumeTrue(fast.getClass() != SampleKernels.class);
+        Random rand = new Random(3);
+        for (int trial = 0; trial < 3000; trial++) {
+            int n = rand.nextInt(300);
+            int depth = rand.nextInt(32) + 1;
+            int off = rand.nextInt(5);
+            long[] longs = randomLongs(rand, n, depth);
+            int[] ints = randomInts(rand, n, depth);
+            boolean bad = n > 0 && rand.nextBoolean();
+            if (bad) {
+                // Just outside the range, or far outside it
+                long limit = 1L << (depth - 1);
+                long val = switch (rand.nextInt(3)) {
+                    case 0 -> limit;
+                    case 1 -> -limit - 1;
+                    default -> rand.nextLong();
+                };
+                if (val >= -limit && val < limit)
+                    val = limit;
+                longs[rand.nextInt(n)] = val;
+                if (depth < 32)
+                    ints[rand.nextInt(n)] = (int) Math.max(Math.min(val, Integer.MAX_VALUE), Integer.MIN_VALUE);
+            }
+
+            int[] expect = new int[off + n];
+            int[] actual = new int[off + n];
+            if (bad) {
+                String msg = assertThrows(IllegalArgumentException.class, () -> plain.narrow(longs, expect, off, n, depth)).getMessage();
+                assertEquals(msg, assertThrows(IllegalArgumentException.class, () -> fast.narrow(longs, actual, off, n, depth)).getMessage());
+            } else {
+                plain.narrow(longs, expect, off, n, depth);
+                fast.narrow(longs, actual, off, n, depth);
+                assertArrayEquals(expect, actual);
+            }
+
+            if (bad && depth < 32) {
+                String msg = assertThrows(IllegalArgumentException.class, () -> plain.narrow(ints, expect, off, n, depth)).getMessage();
+                assertEquals(msg, assertThrows(IllegalArgumentException.class, () -> fast.narrow(ints, actual, off, n, depth)).getMessage());
+            } else {
+                plain.narrow(ints, expect, off, n, depth);
+                fast.narrow(ints, actual, off, n, depth);
+                assertArrayEquals(expect, actual);
+            }
+        }
+    }
+
+    private static long[] randomLongs(Random rand, int len, int depth) {
+        long[] result = new long[len];
+        for (int i = 0; i < len; i++)
+            result[i] = rand.nextLong() >> (64 - depth);
+        return result;
+    }
+
+    private static int[] randomInts(Random rand, int len, int depth) {
+        int[] result = new int[len];
+        for (int i = 0; i < len; i++)
+            result[i] = rand.nextInt() >> (32 - depth);
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests the tables of ApodizationWindow and their cache, and that the windows
+ * selected in the search options are used by the autocorrelation method.
+ */
+class ApodizationWindowTest {
+
+    private static final int[] SIZES = {1, 2, 3, 16, 17, 100, 1152, 4096, 4099};
+
+    @Test
+    void tukeyEndpoints() {
+        for (int n : SIZES) {
+            assertArrayEquals(ApodizationWindow.rectangle().getTable(n), ApodizationWindow.tukey(0).getTable(n), 0);
+            assertArrayEquals(ApodizationWindow.hann().getTable(n), ApodizationWindow.tukey(1).getTable(n), 0);
+            double[] ones = new double[n];
+            Arrays.fill(ones, 1);
+            assertArrayEquals(ones, ApodizationWindow.rectangle().getTable(n), 0);
+        }
+    }
+
+    @Test
+    void wholeBlockWindowsAreSymmetric() {
+        for (ApodizationWindow win : List.of(ApodizationWindow.rectangle(), ApodizationWindow.hann(), ApodizationWindow.welch(),
+                ApodizationWindow.tukey(0.1), ApodizationWindow.tukey(0.5))) {
+            for (int n : SIZES) {
+                double[] table = win.getTable(n);
+                assertEquals(n, table.length);
+                for (int i = 0; i < n; i++) {
+                    assertEquals(table[i], table[n - 1 - i], 1e-12, win + " n=" + n);
+                    assertTrue(0 <= table[i] && table[i] <= 1, win + " n=" + n);
+                }
+            }
+        }
+    }
+
+    @Test
+    void partsAreZeroWhereTheyShouldBe() {
+        for (int parts = 2; parts <= 4; parts++) {
+            List<ApodizationWindow> partial = ApodizationWindow.partialTukey(parts, 0.5);
+            List<ApodizationWindow> punchout = ApodizationWindow.punchoutTukey(parts, 0.5);
+            assertEquals(parts, partial.size());
+            assertEquals(parts, punchout.size());
+            for (int n : new int[] {100, 1152, 4099}) {
+                for (int k = 0; k < parts; k++) {
+                    double[] inside = partial.get(k).getTable(n);
+                    double[] outside = punchout.get(k).getTable(n);
+                    int start = n * k / parts;
+                    int end = n * (k + 1) / parts;
+                    for (int i = 0; i < n; i++) {
+                        boolean inPart = start <= i && i < end;
+                        assertEquals(inPart, inside[i] > 0, "partial " + k + "/" + parts + " i=" + i);
+                        assertEquals(!inPart, outside[i] > 0, "punchout " + k + "/" + parts + " i=" + i);
+                    }
+                    // Together the parts cover the block once
+                    if (k == 0)
+                        assertEquals(0, start);
+                    if (k == parts - 1)
+                        assertEquals(n, end);
+                }
+            }
+        }
+    }
+
+    @Test
+    void cacheReturnsTablesOfTheRightSize() {
+        ApodizationWindow win = ApodizationWindow.tukey(0.5);
+        double[] first = win.getTable(4096);
+        assertSame(first, win.getTable(4096));
+        // More sizes than are cached, such as the odd final blocks of many files
+        for (int n = 1; n <= 200; n++)
+            assertEquals(n, win.getTable(n).length);
+        assertArrayEquals(first, win.getTable(4096), 0);
+        assertEquals(4096, win.getTable(4096).length);
+    }
+
+    @Test
+    void windowsAreUsedByTheSearch() throws IOException {
+        SubframeEncoder.SearchOptions base = SubframeEncoder.SearchOptions.SUBSET_BEST
+                .withLpcMethod(SubframeEncoder.SearchOptions.LpcMethod.AUTOCORRELATION);
+        List<ApodizationWindow> all = new ArrayList<>();
+        all.add(ApodizationWindow.tukey(0.5));
+        all.addAll(ApodizationWindow.partialTukey(2, 0.5));
+        all.addAll(ApodizationWindow.punchoutTukey(3, 0.5));
+        int[][] samples = FlacTestFiles.makeSamples(2, 30000, 16);
+
+        byte[] previous = null;
+        for (List<ApodizationWindow> windows : List.of(List.of(ApodizationWindow.rectangle()), List.of(ApodizationWindow.welch()), all)) {
+            byte[] flac = FlacTestFiles.encode(samples, 16, base.withLpcWindows(windows));
+            assertArrayEquals(samples, FlacTestFiles.decode(flac), windows.toString());
+            // Different windows choose different coefficients
+            if (previous != null)
+                assertFalse(Arrays.equals(previous, flac), windows.toString());
+            previous = flac;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import io.nayuki.flac.common.Crc;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Tests the buffered Rice writing in BitOutputStream against one-bit-at-a-time writes,
+ * with enough data to cross the 8192-byte buffer boundary many times.
+ */
+class BitOutputStreamTest {
+
+    @Test
+    void riceBatchMatchesSingleWrites() throws IOException {
+        Random rand = new Random(0);
+        long[] data = new long[4000];
+        var batch = new ByteArrayOutputStream();
+        var single = new ByteArrayOutputStream();
+        var bitwise = new ByteArrayOutputStream();
+        try (BitOutputStream batchOut = new BitOutputStream(batch);
+             BitOutputStream singleOut = new BitOutputStream(single);
+             BitOutputStream bitwiseOut = new BitOutputStream(bitwise)) {
+            for (int trial = 0; trial < 100; trial++) {
+                int param = rand.nextInt(32);
+                int start = rand.nextInt(10);
+                int end = start + rand.nextInt(data.length - start);
+                for (int i = start; i < end; i++)
+                    data[i] = randomValue(rand, param);
+
+                batchOut.writeRiceSignedInts(param, data, start, end);
+                for (int i = start; i < end; i++)
+                    singleOut.writeRiceSignedInt(param, data[i]);
+                for (int i = start; i < end; i++)
+                    writeRiceBitwise(bitwiseOut, param, data[i]);
+
+                // A few padding bits shift the alignment of the following Rice codes
+                int pad = rand.nextInt(8);
+                batchOut.writeInt(pad, 0);
+                singleOut.writeInt(pad, 0);
+                bitwiseOut.writeInt(pad, 0);
+                assertEquals(bitwiseOut.getByteCount(), batchOut.getByteCount());
+                assertEquals(bitwiseOut.getByteCount(), singleOut.getByteCount());
+            }
+            batchOut.alignToByte();
+            singleOut.alignToByte();
+            bitwiseOut.alignToByte();
+            assertEquals(bitwiseOut.getCrc16(), batchOut.getCrc16());
+            assertEquals(bitwiseOut.getCrc16(), singleOut.getCrc16());
+        }
+        assertArrayEquals(bitwise.toByteArray(), batch.toByteArray());
+        assertArrayEquals(bitwise.toByteArray(), single.toByteArray());
+    }
+
+    @Test
+    void crcsMatchWholeOutput() throws IOException {
+        Random rand = new Random(1);
+        var bout = new ByteArrayOutputStream();
+        int crc8;
+        int crc16;
+        try (BitOutputStream out = new BitOutputStream(bout, 16)) {
+            out.writeInt(8, 0xA5);
+            out.resetCrcs();
+            for (int i = 0; i < 10000; i++)
+                out.writeInt(rand.nextInt(33), rand.nextInt());
+            out.alignToByte();
+            crc8 = out.getCrc8();
+            crc16 = out.getCrc16();
+        }
+        byte[] b = bout.toByteArray();
+        assertEquals(Crc.updateCrc8(0, b, 1, b.length - 1), crc8);
+        assertEquals(Crc.updateCrc16(0, b, 1, b.length - 1), crc16);
+    }
+
+    /** Returns a random signed value whose Rice code is usually short, but sometimes has a unary part longer than 56 bits. */
+    private static long randomValue(Random rand, int param) {
+        long remainder = rand.nextLong() & ((1L << param) - 1);
+        long unsigned = switch (rand.nextInt(10)) {
+            case 0 -> (57L + rand.nextInt(300)) << param | remainder;
+            case 1 -> (long) rand.nextInt(56) << param | remainder;
+            default -> (long) rand.nextInt(4) << param | remainder;
+        };
+        return (unsigned >>> 1) ^ -(unsigned & 1);  // Inverse of the FLAC zigzag mapping
+    }
+
+    /** Writes a Rice code the simplest way, one bit at a time. */
+    private static void writeRiceBitwise(BitOutputStream out, int param, long val) throws IOException {
+        long unsigned = (val << 1) ^ (val >> 63);
+        for (long i = unsigned >>> param; i > 0; i--)
+            out.writeInt(1, 0);
+        out.writeInt(1, 1);
+        for (int i = param - 1; i >= 0; i--)
+            out.writeInt(1, (int) (unsigned >>> i));
+    }
+}
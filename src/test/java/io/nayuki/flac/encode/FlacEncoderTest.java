@@ -0,0 +1,165 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.nayuki.flac.common.FlacTestFiles.Result;
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.decode.ByteArrayFlacInput;
+import io.nayuki.flac.decode.FlacDecoder;
+import io.nayuki.flac.decode.FrameDecoder;
+import org.junit.jupiter.api.Test;
+
+import static io.nayuki.flac.common.FlacTestFiles.decode;
+import static io.nayuki.flac.common.FlacTestFiles.encode;
+import static io.nayuki.flac.common.FlacTestFiles.makeFullScaleSamples;
+import static io.nayuki.flac.common.FlacTestFiles.makeSamples;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that the concurrent FlacEncoder and AdvancedFlacEncoder constructors write exactly
+ * the same stream as the sequential ones, and that the frame size range in the stream info is right.
+ */
+class FlacEncoderTest {
+
+    private static final SubframeEncoder.SearchOptions OPTIONS = SubframeEncoder.SearchOptions.SUBSET_MEDIUM;
+
+    @Test
+    void executorOutputIsIdentical() throws IOException {
+        int[][] samples = makeSamples(2, 100000, 16);
+        Result expect = encode(samples, 16, (info, out) -> new FlacEncoder(info, samples, 4096, OPTIONS, out));
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        try {
+            Result actual = encode(samples, 16, (info, out) -> new FlacEncoder(info, samples, 4096, OPTIONS, out, threads));
+            assertArrayEquals(expect.bytes, actual.bytes);
+            actual = encode(samples, 16, (info, out) -> new FlacEncoder(info, samples, 4096, OPTIONS, out, ForkJoinPool.commonPool()));
+            assertArrayEquals(expect.bytes, actual.bytes);
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    void forkJoinAdvancedOutputIsIdentical() throws IOException {
+        int[][] samples = makeSamples(2, 30000, 16);
+        int[] multiples = {1, 2, 4};
+        Result expect = encode(samples, 16, (info, out) -> new AdvancedFlacEncoder(info, samples, 1024, multiples, OPTIONS, out));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Result actual = encode(samples, 16, (info, out) -> new AdvancedFlacEncoder(info, samples, 1024, multiples, OPTIONS, out, pool, p -> {}));
+            assertArrayEquals(expect.bytes, actual.bytes);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void progressIsSerialAndIncreasing() throws IOException {
+        int[][] samples = makeSamples(2, 30000, 16);
+        var inside = new AtomicBoolean();
+        var fractions = new ArrayList<Double>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            encode(samples, 16, (info, out) -> new AdvancedFlacEncoder(info, samples, 512, new int[] {1, 2, 4}, OPTIONS, out, pool, p -> {
+                assertTrue(inside.compareAndSet(false, true), "Concurrent callback");
+                fractions.add(p);
+                try {
+                    Thread.sleep(2);  // Slow, so that other cells complete meanwhile
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                inside.set(false);
+            }));
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(fractions.isEmpty());
+        for (int i = 1; i < fractions.size(); i++)
+            assertTrue(fractions.get(i - 1) < fractions.get(i));
+        assertEquals(1.0, fractions.get(fractions.size() - 1));
+    }
+
+    @Test
+    void frameSizeRangeMatchesFrames() throws IOException {
+        int[][] samples = makeSamples(3, 50000, 16);
+        int[] multiples = {1, 2, 4, 8};
+        checkFrameSizes(encode(samples, 16, (info, out) -> new FlacEncoder(info, samples, 4096, OPTIONS, out)));
+        checkFrameSizes(encode(samples, 16, (info, out) -> new AdvancedFlacEncoder(info, samples, 1024, multiples, OPTIONS, out)));
+    }
+
+    @Test
+    void fullScaleRoundTrip() throws IOException {
+        for (SubframeEncoder.SearchOptions.RiceMethod method : SubframeEncoder.SearchOptions.RiceMethod.values()) {
+            SubframeEncoder.SearchOptions opt = SubframeEncoder.SearchOptions.SUBSET_BEST.withRiceMethod(method);
+            for (int depth : new int[] {24, 32}) {
+                int[][] samples = makeFullScaleSamples(2, 40000, depth);
+                Result result = encode(samples, depth, (info, out) -> new FlacEncoder(info, samples, 4096, opt, out));
+                assertArrayEquals(samples, decode(result.bytes), method + " depth=" + depth);
+            }
+        }
+    }
+
+    @Test
+    void shortLastBlockRoundTrip() throws IOException {
+        // Noisy last blocks with fewer samples than the predictor orders to search
+        Random rand = new Random(5);
+        for (SubframeEncoder.SearchOptions opt : new SubframeEncoder.SearchOptions[] {
+                SubframeEncoder.SearchOptions.SUBSET_ONLY_FIXED, SubframeEncoder.SearchOptions.SUBSET_INSANE, SubframeEncoder.SearchOptions.LAX_BEST}) {
+            for (int extra : new int[] {1, 2, 3, 5, 8, 13, 33}) {
+                int[][] samples = new int[1][1024 + extra];
+                for (int i = 0; i < samples[0].length; i++)
+                    samples[0][i] = rand.nextInt(65536) - 32768;
+                Result result = encode(samples, 16, (info, out) -> new FlacEncoder(info, samples, 1024, opt, out));
+                assertArrayEquals(samples, decode(result.bytes), "extra=" + extra);
+            }
+        }
+    }
+
+    /** Decodes every frame and checks the minimum and maximum frame sizes recorded by the encoder. */
+    static void checkFrameSizes(Result result) throws IOException {
+        var input = new ByteArrayFlacInput(result.bytes);
+        try (FlacDecoder dec = new FlacDecoder(input)) {
+            while (dec.readAndHandleMetadataBlock() != null);
+            FrameDecoder frames = new FrameDecoder(input, dec.streamInfo.sampleDepth);
+            int[][] buf = new int[dec.streamInfo.numChannels][65536];
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (FrameInfo frame; (frame = frames.readFrame(buf, 0)) != null; ) {
+                min = Math.min(frame.frameSize, min);
+                max = Math.max(frame.frameSize, max);
+            }
+            assertEquals(min, result.info.minFrameSize);
+            assertEquals(max, result.info.maxFrameSize);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.util.Random;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+/**
+ * Tests the autocorrelation method of LinearPredictiveEncoder on autoregressive processes,
+ * and that the coefficients it can't quantize are skipped.
+ */
+class LinearPredictiveEncoderTest {
+
+    @Test
+    void levinsonDurbinSolvesExactAutocorrelation() {
+        // x[n] = 1.5 x[n-1] - 0.7 x[n-2] + noise, whose autocorrelation follows the Yule-Walker equations
+        double a1 = 1.5, a2 = -0.7;
+        double[] autocorr = new double[9];
+        autocorr[0] = 1;
+        autocorr[1] = a1 / (1 - a2);
+        for (int k = 2; k < autocorr.length; k++)
+            autocorr[k] = a1 * autocorr[k - 1] + a2 * autocorr[k - 2];
+
+        double[][] coefs = LinearPredictiveEncoder.levinsonDurbin(autocorr, 8);
+        assertNull(coefs[0]);
+        assertArrayEquals(new double[] {autocorr[1]}, coefs[1], 1e-12);
+        assertArrayEquals(new double[] {a2, a1}, coefs[2], 1e-12);
+        for (int order = 3; order <= 8; order++) {
+            // The higher orders add nothing; the layout puts the nearest sample's coefficient last
+            double[] expect = new double[order];
+            expect[order - 1] = a1;
+            expect[order - 2] = a2;
+            assertArrayEquals(expect, coefs[order], 1e-9, "order=" + order);
+        }
+    }
+
+    @Test
+    void autocorrelationEstimatesArProcess() {
+        // x[n] = 0.9 x[n-1] + 0.4 x[n-2] - 0.5 x[n-3] + noise
+        double[] expect = {-0.5, 0.4, 0.9};
+        Random rand = new Random(1);
+        long[] samples = new long[100000];
+        double x1 = 0, x2 = 0, x3 = 0;
+        for (int i = 0; i < samples.length; i++) {
+            double x = expect[2] * x1 + expect[1] * x2 + expect[0] * x3 + rand.nextGaussian() * 1000;
+            samples[i] = Math.round(x);
+            x3 = x2;
+            x2 = x1;
+            x1 = x;
+        }
+        double[][] coefs = LinearPredictiveEncoder.computeAutocorrelationCoefficients(new FastDotProduct(samples, 6), 6);
+        assertArrayEquals(expect, coefs[3], 0.02);
+        for (int order = 4; order <= 6; order++) {
+            for (int i = 0; i < order - 3; i++)
+                assertEquals(0, coefs[order][i], 0.02);
+        }
+    }
+
+    @Test
+    void skipsCoefficientsTooLargeToQuantize() {
+        // (1 - 0.99 z^-1)^17 has all its roots inside the unit circle, but binomial coefficients of up to about 2^14.5
+        int order = 17;
+        double[] realCoefs = new double[order];
+        double binom = 1;
+        for (int k = 1; k <= order; k++) {
+            binom = binom * (order - k + 1) / k;
+            realCoefs[order - k] = -binom * Math.pow(-0.99, k);
+        }
+        Random rand = new Random(2);
+        long[] samples = new long[4096];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = rand.nextInt(65536) - 32768;
+        assertNull(LinearPredictiveEncoder.computeBest(samples, 0, 16, realCoefs, 0, 8, true));
+
+        // Scaled below 2^14, the same predictor is usable
+        for (int i = 0; i < order; i++)
+            realCoefs[i] /= 2;
+        assertNotNull(LinearPredictiveEncoder.computeBest(samples, 0, 16, realCoefs, 0, 8, true));
+    }
+
+    @Test
+    void autocorrelationRoundTrip() throws IOException {
+        SubframeEncoder.SearchOptions opt = SubframeEncoder.SearchOptions.LAX_BEST
+                .withLpcMethod(SubframeEncoder.SearchOptions.LpcMethod.AUTOCORRELATION);
+        for (int depth : new int[] {8, 16, 24}) {
+            int[][] samples = FlacTestFiles.makeSamples(2, 20000, depth);
+            byte[] flac = FlacTestFiles.encode(samples, depth, opt);
+            assertArrayEquals(samples, FlacTestFiles.decode(flac), "depth=" + depth);
+        }
+    }
+}
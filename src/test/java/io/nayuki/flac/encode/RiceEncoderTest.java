@@ -0,0 +1,105 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Tests RiceEncoder.computeBestSizeAndOrder() against a brute force search, including residuals too wide for int tallies.
+ */
+class RiceEncoderTest {
+
+    @Test
+    void wideResidualsUseEscapeCode() {
+        long[] data = new long[4096];
+        java.util.Arrays.fill(data, -(1 << 19));
+        int[] params = new int[1];
+        long result = RiceEncoder.computeBestSizeAndOrder(data, 0, 0, params);
+        assertEquals(0, result & 0xF);
+        assertEquals(4 + 4 + 5 + 4096 * 20, result >>> 4);
+        assertEquals(16 + 20, params[0]);
+    }
+
+    @Test
+    void matchesBruteForce() {
+        Random rand = new Random(0);
+        for (int trial = 0; trial < 300; trial++) {
+            long[] data = new long[(rand.nextInt(64) + 1) << rand.nextInt(7)];
+            int bits = rand.nextInt(37) + 1;
+            for (int i = 0; i < data.length; i++)
+                data[i] = rand.nextInt(10) == 0 ? rand.nextLong() >> (64 - bits) : rand.nextLong() >> (64 - Math.min(bits, 8));
+            int warmup = rand.nextInt(Math.min(data.length, 33));
+            int maxOrder = rand.nextInt(9);
+            int[] params = new int[1 << maxOrder];
+            long result = RiceEncoder.computeBestSizeAndOrder(data, warmup, maxOrder, params);
+            int order = (int) (result & 0xF);
+
+            long bestSize = Long.MAX_VALUE;
+            for (int i = 0; i <= maxOrder; i++) {
+                if (data.length % (1 << i) == 0 && data.length >>> i >= warmup)
+                    bestSize = Math.min(bruteForceSize(data, warmup, i, null), bestSize);
+            }
+            assertEquals(bestSize, result >>> 4);
+            assertEquals(bestSize, bruteForceSize(data, warmup, order, params));
+        }
+    }
+
+    /**
+     * Returns the size of the residual section with the given partition order, using the given
+     * parameter for each partition (in the format of RiceEncoder.encode()), or the best ones if params is null.
+     */
+    private static long bruteForceSize(long[] data, int warmup, int order, int[] params) {
+        long result = 4;  // Like the encoder, this counts 4 bits for the 6-bit coding method and partition order
+        int partSize = data.length >>> order;
+        for (int i = 0; i < 1 << order; i++) {
+            int start = Math.max(i * partSize, warmup);
+            int end = (i + 1) * partSize;
+            long best = Long.MAX_VALUE;
+            for (int param = 0; param < 48; param++) {
+                if (params != null && param != params[i])
+                    continue;
+                long size = 4;
+                if (param < 15) {
+                    for (int j = start; j < end; j++)
+                        size += (((data[j] << 1) ^ (data[j] >> 63)) >>> param) + 1 + param;
+                } else if (param >= 17) {  // The encoder never uses the 0-bit escape
+                    size += 5;
+                    for (int j = start; j < end; j++) {
+                        if (data[j] >> (param - 17) != 0 && data[j] >> (param - 17) != -1)
+                            size = Long.MAX_VALUE;
+                    }
+                    if (size != Long.MAX_VALUE)
+                        size += (long) (param - 16) * (end - start);
+                } else
+                    continue;
+                best = Math.min(size, best);
+            }
+            result += best;
+        }
+        return result;
+    }
+}
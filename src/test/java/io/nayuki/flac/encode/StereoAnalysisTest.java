@@ -0,0 +1,159 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.decode.ByteArrayFlacInput;
+import io.nayuki.flac.decode.FlacDecoder;
+import io.nayuki.flac.decode.FrameDecoder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests the heuristic stereo searches of FrameEncoder against the exhaustive search,
+ * and the single assignment that StereoAnalysis.chooseChannels picks in clear-cut cases.
+ */
+class StereoAnalysisTest {
+
+    @Test
+    void prunedIsCloseToExhaustive() throws IOException {
+        int[][] music = FlacTestFiles.decode(Files.readAllBytes(Paths.get("src/test/resources/test.flac")));
+        int[][] synthetic = FlacTestFiles.makeSamples(2, 100000, 16);
+        for (SubframeEncoder.SearchOptions opt : List.of(SubframeEncoder.SearchOptions.SUBSET_MEDIUM, SubframeEncoder.SearchOptions.SUBSET_BEST)) {
+            byte[] exhaustive = encode(music, opt.withStereoSearch(SubframeEncoder.SearchOptions.StereoSearch.EXHAUSTIVE));
+            byte[] pruned = encode(music, opt.withStereoSearch(SubframeEncoder.SearchOptions.StereoSearch.PRUNED));
+            assertArrayEquals(music, FlacTestFiles.decode(pruned));
+            // Measured: 3 or 4 of the 108 frames differ, and the file grows by under 0.01%
+            int[] expect = channelAssignments(exhaustive);
+            int[] actual = channelAssignments(pruned);
+            assertEquals(expect.length, actual.length);
+            int same = 0;
+            for (int i = 0; i < expect.length; i++) {
+                if (expect[i] == actual[i])
+                    same++;
+            }
+            assertTrue(same >= expect.length * 0.9, same + " of " + expect.length);
+            assertTrue(pruned.length <= exhaustive.length * 1.001, pruned.length + " vs " + exhaustive.length);
+
+            // Measured: the file grows by under 0.3%
+            exhaustive = encode(synthetic, opt.withStereoSearch(SubframeEncoder.SearchOptions.StereoSearch.EXHAUSTIVE));
+            pruned = encode(synthetic, opt.withStereoSearch(SubframeEncoder.SearchOptions.StereoSearch.PRUNED));
+            assertArrayEquals(synthetic, FlacTestFiles.decode(pruned));
+            assertTrue(pruned.length <= exhaustive.length * 1.005, pruned.length + " vs " + exhaustive.length);
+        }
+    }
+
+    @Test
+    void estimatedRoundTrip() throws IOException {
+        int[][] music = FlacTestFiles.decode(Files.readAllBytes(Paths.get("src/test/resources/test.flac")));
+        int[][] synthetic = FlacTestFiles.makeSamples(2, 100000, 16);
+        for (int[][] samples : List.of(music, synthetic)) {
+            SubframeEncoder.SearchOptions opt = SubframeEncoder.SearchOptions.SUBSET_MEDIUM;
+            byte[] exhaustive = encode(samples, opt);
+            byte[] estimated = encode(samples, opt.withStereoSearch(SubframeEncoder.SearchOptions.StereoSearch.ESTIMATED));
+            assertArrayEquals(samples, FlacTestFiles.decode(estimated));
+            // Measured: the file grows by under 0.3%, having picked another assignment in some frames
+            assertFalse(Arrays.equals(exhaustive, estimated));
+            assertTrue(estimated.length <= exhaustive.length * 1.01, estimated.length + " vs " + exhaustive.length);
+        }
+    }
+
+    @Test
+    void estimatedPicksSideForSimilarChannels() throws IOException {
+        // The right channel is the left one plus a little noise, so the side channel is nearly silent
+        Random rand = new Random(1);
+        int[][] samples = new int[2][50000];
+        for (int i = 0; i < samples[0].length; i++) {
+            samples[0][i] = (int) Math.round(Math.sin(i * 0.01) * 20000 + rand.nextGaussian() * 1000);
+            samples[1][i] = samples[0][i] + rand.nextInt(5) - 2;
+        }
+        boolean[] chosen = StereoAnalysis.chooseChannels(toLongs(samples[0]), toLongs(samples[1]));
+        assertTrue(chosen[3]);
+        assertEquals(2, count(chosen));
+
+        byte[] flac = encode(samples, SubframeEncoder.SearchOptions.SUBSET_MEDIUM.withStereoSearch(SubframeEncoder.SearchOptions.StereoSearch.ESTIMATED));
+        assertArrayEquals(samples, FlacTestFiles.decode(flac));
+        for (int assignment : channelAssignments(flac))
+            assertTrue(assignment >= 8, "assignment " + assignment);
+    }
+
+    @Test
+    void estimatedPicksLeftRightForUnrelatedChannels() {
+        // A loud tone on the left and quiet noise on the right, which every side channel would copy the tone into
+        Random rand = new Random(2);
+        long[] left = new long[4096];
+        long[] right = new long[left.length];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = Math.round(Math.sin(i * 0.01) * 20000 + rand.nextGaussian() * 1000);
+            right[i] = Math.round(rand.nextGaussian() * 10);
+        }
+        assertArrayEquals(new boolean[]{true, true, false, false}, StereoAnalysis.chooseChannels(left, right));
+    }
+
+    private static long[] toLongs(int[] samples) {
+        long[] result = new long[samples.length];
+        for (int i = 0; i < samples.length; i++)
+            result[i] = samples[i];
+        return result;
+    }
+
+    private static int count(boolean[] flags) {
+        int result = 0;
+        for (boolean b : flags) {
+            if (b)
+                result++;
+        }
+        return result;
+    }
+
+    private static byte[] encode(int[][] samples, SubframeEncoder.SearchOptions opt) throws IOException {
+        return FlacTestFiles.encode(samples, 16, opt);
+    }
+
+    /** Returns the channel assignment of each frame of the given FLAC file. */
+    private static int[] channelAssignments(byte[] flac) throws IOException {
+        var input = new ByteArrayFlacInput(flac);
+        try (FlacDecoder dec = new FlacDecoder(input)) {
+            while (dec.readAndHandleMetadataBlock() != null);
+            FrameDecoder frames = new FrameDecoder(input, dec.streamInfo.sampleDepth);
+            int[][] buf = new int[dec.streamInfo.numChannels][65536];
+            List<Integer> result = new ArrayList<>();
+            for (FrameInfo frame; (frame = frames.readFrame(buf, 0)) != null; )
+                result.add(frame.channelAssignment);
+            return result.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
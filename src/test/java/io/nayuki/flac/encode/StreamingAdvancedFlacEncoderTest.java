@@ -0,0 +1,143 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.util.Random;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import io.nayuki.flac.common.FrameInfo;
+import io.nayuki.flac.common.StreamInfo;
+import io.nayuki.flac.decode.ByteArrayFlacInput;
+import io.nayuki.flac.decode.FlacDecoder;
+import io.nayuki.flac.decode.FrameDecoder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that StreamingAdvancedFlacEncoder writes a stream that decodes to its input, with the right stream info
+ * and only the allowed block sizes, for windows from the smallest allowed to longer than the input.
+ */
+class StreamingAdvancedFlacEncoderTest {
+
+    private static final SubframeEncoder.SearchOptions OPTIONS = SubframeEncoder.SearchOptions.SUBSET_MEDIUM;
+
+    private static final int BASE_SIZE = 1024;
+
+    private static final int[] MULTIPLES = {1, 2, 4};
+
+    @Test
+    void smallestWindowForcesFrames() throws IOException {
+        // With room for only the largest frame, a frame is forced out for almost every new base block
+        int[][] samples = FlacTestFiles.makeSamples(2, 40 * BASE_SIZE, 16);
+        long[] bytesBeforeFinish = new long[1];
+        FlacTestFiles.Result result = encode(samples, 16, 4, BASE_SIZE, bytesBeforeFinish);
+        check(samples, 16, result);
+        // At most the window is still unwritten
+        assertTrue(bytesBeforeFinish[0] > result.bytes.length * 3 / 4);
+    }
+
+    @Test
+    void windowLongerThanInput() throws IOException {
+        int[][] samples = FlacTestFiles.makeSamples(2, 30 * BASE_SIZE, 16);
+        FlacTestFiles.Result result = encode(samples, 16, 100, 30 * BASE_SIZE, null);
+        check(samples, 16, result);
+    }
+
+    @Test
+    void partialLastBaseBlock() throws IOException {
+        for (int depth : new int[] {8, 24}) {
+            for (int extra : new int[] {1, 500, BASE_SIZE - 1, BASE_SIZE + 1, 3 * BASE_SIZE + 7}) {
+                int[][] samples = FlacTestFiles.makeSamples(1, 20 * BASE_SIZE + extra, depth);
+                for (int window : new int[] {4, 7, 100})
+                    check(samples, depth, encode(samples, depth, window, BASE_SIZE, null));
+            }
+        }
+    }
+
+    @Test
+    void unalignedWrites() throws IOException {
+        int[][] samples = FlacTestFiles.makeSamples(2, 25 * BASE_SIZE + 333, 16);
+        FlacTestFiles.Result expect = encode(samples, 16, 6, samples[0].length, null);
+        for (int maxChunk : new int[] {1, 100, 1023, 1025, 5000}) {
+            FlacTestFiles.Result actual = encode(samples, 16, 6, maxChunk, null);
+            check(samples, 16, actual);
+            assertArrayEquals(expect.bytes, actual.bytes, "maxChunk=" + maxChunk);
+        }
+    }
+
+    /**
+     * Encodes the samples with the given window, passing them to write() in random chunks of up to maxChunk samples.
+     * If bytesBeforeFinish isn't null, its element is set to the number of bytes written before finish().
+     */
+    private static FlacTestFiles.Result encode(int[][] samples, int depth, int windowBlocks, int maxChunk, long[] bytesBeforeFinish) throws IOException {
+        Random rand = new Random(maxChunk);
+        return FlacTestFiles.encode(samples, depth, (info, out) -> {
+            info.numSamples = 0;
+            info.md5Hash = new byte[16];
+            var enc = new StreamingAdvancedFlacEncoder(info, BASE_SIZE, MULTIPLES, windowBlocks, OPTIONS, out);
+            for (int pos = 0; pos < samples[0].length; ) {
+                int n = Math.min(rand.nextInt(maxChunk) + 1, samples[0].length - pos);
+                int[][] chunk = new int[samples.length][n + 3];
+                for (int ch = 0; ch < samples.length; ch++)
+                    System.arraycopy(samples[ch], pos, chunk[ch], 0, n);
+                enc.write(chunk, n);
+                pos += n;
+            }
+            if (bytesBeforeFinish != null)
+                bytesBeforeFinish[0] = out.getByteCount();
+            enc.finish();
+        });
+    }
+
+    /** Checks that the stream decodes to the samples, its stream info, and that its frames have allowed sizes. */
+    private static void check(int[][] samples, int depth, FlacTestFiles.Result result) throws IOException {
+        assertArrayEquals(samples, FlacTestFiles.decode(result.bytes));
+        assertEquals(samples[0].length, result.info.numSamples);
+        assertArrayEquals(StreamInfo.getMd5Hash(samples, depth), result.info.md5Hash);
+        FlacEncoderTest.checkFrameSizes(result);
+
+        var input = new ByteArrayFlacInput(result.bytes);
+        try (FlacDecoder dec = new FlacDecoder(input)) {
+            while (dec.readAndHandleMetadataBlock() != null);
+            FrameDecoder frames = new FrameDecoder(input, depth);
+            int[][] buf = new int[samples.length][65536];
+            long pos = 0;
+            for (FrameInfo frame; (frame = frames.readFrame(buf, 0)) != null; ) {
+                assertEquals(pos, frame.sampleOffset);
+                pos += frame.blockSize;
+                boolean allowed = false;
+                for (int m : MULTIPLES)
+                    allowed |= frame.blockSize == m * BASE_SIZE;
+                // Only frames that reach the end of the stream may be cut short
+                assertTrue(allowed || pos == samples[0].length, "blockSize=" + frame.blockSize);
+                assertTrue(frame.blockSize >= result.info.minBlockSize || pos == samples[0].length);
+                assertTrue(frame.blockSize <= result.info.maxBlockSize);
+            }
+            assertEquals(samples[0].length, pos);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.io.IOException;
+import java.util.Random;
+
+import io.nayuki.flac.common.FlacTestFiles;
+import io.nayuki.flac.common.StreamInfo;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Tests that StreamingFlacEncoder writes the same stream as FlacEncoder no matter how the samples are chunked.
+ */
+class StreamingFlacEncoderTest {
+
+    private static final SubframeEncoder.SearchOptions OPTIONS = SubframeEncoder.SearchOptions.SUBSET_MEDIUM;
+
+    @Test
+    void chunkedOutputIsIdentical() throws IOException {
+        for (int depth : new int[] {8, 16, 24}) {
+            int[][] samples = FlacTestFiles.makeSamples(2, 30001, depth);
+            FlacTestFiles.Result expect = FlacTestFiles.encode(samples, depth,
+                (info, out) -> new FlacEncoder(info, samples, 4096, OPTIONS, out));
+            for (int maxChunk : new int[] {1000, 4096, 10000, 30001}) {
+                Random rand = new Random(maxChunk);
+                FlacTestFiles.Result actual = FlacTestFiles.encode(samples, depth, (info, out) -> {
+                    info.numSamples = 0;
+                    info.md5Hash = new byte[16];
+                    StreamingFlacEncoder enc = new StreamingFlacEncoder(info, 4096, OPTIONS, out);
+                    for (int pos = 0; pos < samples[0].length; ) {
+                        int n = Math.min(rand.nextInt(maxChunk) + 1, samples[0].length - pos);
+                        enc.write(getRange(samples, pos, n), n);
+                        pos += n;
+                    }
+                    enc.finish();
+                });
+                assertArrayEquals(expect.bytes, actual.bytes, "depth=" + depth + " maxChunk=" + maxChunk);
+                assertEquals(samples[0].length, actual.info.numSamples);
+                assertArrayEquals(StreamInfo.getMd5Hash(samples, depth), actual.info.md5Hash);
+                assertEquals(expect.info.minFrameSize, actual.info.minFrameSize);
+                assertEquals(expect.info.maxFrameSize, actual.info.maxFrameSize);
+            }
+        }
+    }
+
+    @Test
+    void rejectsWritesAfterFinish() throws IOException {
+        int[][] samples = new int[1][10];
+        FlacTestFiles.encode(samples, 16, (info, out) -> {
+            StreamingFlacEncoder enc = new StreamingFlacEncoder(info, 4096, OPTIONS, out);
+            enc.write(samples, 10);
+            enc.finish();
+            assertEquals(10, info.numSamples);
+            assertThrows(IllegalStateException.class, () -> enc.write(samples, 10));
+            assertThrows(IllegalStateException.class, () -> enc.finish());
+        });
+    }
+
+    /** Returns a copy of array[ : ][off : off + len] in arrays that are longer than needed, as a caller's buffer might be. */
+    private static int[][] getRange(int[][] array, int off, int len) {
+        int[][] result = new int[array.length][len + 7];
+        for (int i = 0; i < array.length; i++)
+            System.arraycopy(array[i], off, result[i], 0, len);
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * FLAC library (Java)
+ *
+ * Copyright (c) Project Nayuki
+ * https://www.nayuki.io/page/flac-library-java
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (see COPYING.txt and COPYING.LESSER.txt).
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.nayuki.flac.encode;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Tests that the subframe search never reports a size above verbatim, even when an optimistic
+ * Rice estimate won the search and its exact size turned out to be larger.
+ */
+class SubframeEncoderTest {
+
+    @Test
+    void neverWorseThanVerbatim() {
+        Random rand = new Random(0);
+        for (SubframeEncoder.SearchOptions.RiceMethod method : SubframeEncoder.SearchOptions.RiceMethod.values()) {
+            SubframeEncoder.SearchOptions opt = SubframeEncoder.SearchOptions.SUBSET_BEST.withRiceMethod(method);
+            for (int trial = 0; trial < 100; trial++) {
+                int depth = rand.nextInt(33) + 1;
+                long[] samples = new long[rand.nextInt(4096) + 16];
+                int noise = rand.nextInt(depth) + 1;
+                for (int i = 0; i < samples.length; i++) {
+                    long x = Math.round(Math.sin(i * 0.01) * Math.scalb(0.9, depth - 1)) + (rand.nextLong() >> (64 - noise));
+                    samples[i] = Math.max(Math.min(x, (1L << (depth - 1)) - 1), -(1L << (depth - 1)));
+                }
+                SizeEstimate<SubframeEncoder> best = SubframeEncoder.computeBest(samples, depth, opt);
+                SizeEstimate<SubframeEncoder> verbatim = VerbatimEncoder.computeBest(samples, 0, depth);
+                assertTrue(best.sizeEstimate <= verbatim.sizeEstimate, method + " depth=" + depth);
+                if (method == SubframeEncoder.SearchOptions.RiceMethod.ESTIMATE_THEN_EXACT) {
+                    // The reported size must be the exact one, not the estimate that won the search
+                    long exact = best.encoder.refineSize(samples, best.sizeEstimate, opt.maxRiceOrder);
+                    assertTrue(best.sizeEstimate == exact || best.encoder instanceof VerbatimEncoder, "depth=" + depth);
+                }
+            }
+        }
+    }
+}